@@ -0,0 +1,50 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached.jfr;
+
+import io.opentracing.contrib.spymemcached.OperationListener;
+import java.net.SocketAddress;
+import jdk.jfr.EventType;
+
+/**
+ * Emits a JDK Flight Recorder event for every completed operation. When the event is not enabled
+ * in a recording nothing is allocated.
+ *
+ * <pre>
+ * new TracingConfiguration.Builder(tracer)
+ *     .withOperationListener(new JfrOperationListener())
+ *     .build();
+ * </pre>
+ */
+public class JfrOperationListener implements OperationListener {
+
+  private static final EventType EVENT_TYPE =
+      EventType.getEventType(MemcachedOperationEvent.class);
+
+  @Override
+  public void onOperation(String operationName, String key, SocketAddress node,
+      long durationNanos, long payloadBytes, String status) {
+    if (!EVENT_TYPE.isEnabled()) {
+      return;
+    }
+    MemcachedOperationEvent event = new MemcachedOperationEvent();
+    event.operation = operationName;
+    event.keyHash = key == null ? 0 : key.hashCode();
+    event.node = node == null ? null : node.toString();
+    event.latency = durationNanos;
+    event.payload = payloadBytes;
+    event.status = status;
+    event.commit();
+  }
+}
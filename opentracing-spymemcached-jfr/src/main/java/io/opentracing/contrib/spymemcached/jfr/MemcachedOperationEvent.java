@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name(MemcachedOperationEvent.NAME)
+@Label("Memcached Operation")
+@Category({"Memcached"})
+@Description("Completed operation of a TracingMemcachedClient")
+@StackTrace(false)
+class MemcachedOperationEvent extends Event {
+
+  static final String NAME = "io.opentracing.contrib.spymemcached.Operation";
+
+  @Label("Operation")
+  String operation;
+
+  @Label("Key Hash")
+  @Description("Hash code of the key, 0 for operations without key")
+  int keyHash;
+
+  @Label("Node")
+  String node;
+
+  @Label("Latency")
+  @Timespan
+  long latency;
+
+  @Label("Payload")
+  @Description("Serialized size of the values, -1 if not recorded")
+  @DataAmount
+  long payload;
+
+  @Label("Status")
+  String status;
+}
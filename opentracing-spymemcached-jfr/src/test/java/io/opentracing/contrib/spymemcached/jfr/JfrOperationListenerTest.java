@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached.jfr;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+public class JfrOperationListenerTest {
+
+  @Test
+  public void recordsEnabledEvents() throws Exception {
+    JfrOperationListener listener = new JfrOperationListener();
+    listener.onOperation("get", "ignored", null, 1000, -1, null);
+
+    Path file = Files.createTempFile("memcached", ".jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable(MemcachedOperationEvent.NAME);
+      recording.start();
+      listener.onOperation("set", "key", new InetSocketAddress("localhost", 11211), 2000, 5,
+          "SUCCESS");
+      recording.stop();
+      recording.dump(file);
+    }
+
+    List<RecordedEvent> events = new ArrayList<>();
+    for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+      if (event.getEventType().getName().equals(MemcachedOperationEvent.NAME)) {
+        events.add(event);
+      }
+    }
+    Files.delete(file);
+
+    assertEquals(1, events.size());
+    RecordedEvent event = events.get(0);
+    assertEquals("set", event.getString("operation"));
+    assertEquals("key".hashCode(), event.getInt("keyHash"));
+    assertEquals(Duration.ofNanos(2000), event.getDuration("latency"));
+    assertEquals(5, event.getLong("payload"));
+    assertEquals("SUCCESS", event.getString("status"));
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import net.spy.memcached.internal.CheckedOperationTimeoutException;
+import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+
+/**
+ * Future of one caller's single key get whose key is read by a request shared with other callers:
+ * a bulk get sent by the {@link GetBatcher} or a get coalesced by the {@link ReadCoalescer}. It
+ * fails like a {@link GetFuture} when the operation that read its key failed, and cancelling it
+ * only gives up this caller's result.
+ */
+class BatchedGetFuture<T> extends GetFuture<T> {
+
+  private final String key;
+  private final long timeoutMillis;
+  private final CountDownLatch latch = new CountDownLatch(1);
+  private Operation operation;
+  private Future<T> value;
+  private OperationStatus status;
+  private boolean cancelled;
+
+  BatchedGetFuture(String key, long timeoutMillis, ExecutorService executorService) {
+    super(new CountDownLatch(0), timeoutMillis, key, executorService);
+    this.key = key;
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * @param operation operation that read the key, <code>null</code> if not known
+   * @param value future of the decoded value, <code>null</code> if the key was not found
+   */
+  void complete(Operation operation, Future<T> value, OperationStatus status) {
+    synchronized (this) {
+      if (latch.getCount() == 0) {
+        return;
+      }
+      this.operation = operation;
+      this.value = value;
+      this.status = status;
+      latch.countDown();
+    }
+    signalComplete();
+  }
+
+  /**
+   * @return <code>1</code> if the value was found, <code>0</code> if not, <code>-1</code> if the
+   * get did not complete or failed
+   */
+  synchronized int found() {
+    if (latch.getCount() != 0 || cancelled || operation != null
+        && (operation.isCancelled() || operation.hasErrored() || operation.isTimedOut())) {
+      return -1;
+    }
+    return value == null ? 0 : 1;
+  }
+
+  @Override
+  public T get() throws InterruptedException, ExecutionException {
+    try {
+      return get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      throw new RuntimeException("Timed out waiting for operation", e);
+    }
+  }
+
+  @Override
+  public T get(long duration, TimeUnit units)
+      throws InterruptedException, TimeoutException, ExecutionException {
+    if (!latch.await(duration, units)) {
+      throw new TimeoutException("Timed out waiting for the batched get of " + key);
+    }
+    Future<T> result;
+    synchronized (this) {
+      if (cancelled || operation != null && operation.isCancelled()) {
+        throw new ExecutionException(new CancellationException("Cancelled"));
+      }
+      if (operation != null && operation.hasErrored()) {
+        throw new ExecutionException(operation.getException());
+      }
+      if (operation != null && operation.isTimedOut()) {
+        throw new ExecutionException(
+            new CheckedOperationTimeoutException("Operation timed out.", operation));
+      }
+      result = value;
+    }
+    return result == null ? null : result.get();
+  }
+
+  @Override
+  public OperationStatus getStatus() {
+    try {
+      latch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return new OperationStatus(false, "Interrupted", StatusCode.INTERRUPTED);
+    }
+    synchronized (this) {
+      return status;
+    }
+  }
+
+  @Override
+  public boolean cancel(boolean ign) {
+    synchronized (this) {
+      if (latch.getCount() == 0) {
+        return false;
+      }
+      cancelled = true;
+    }
+    complete(null, null, new OperationStatus(false, "cancelled", StatusCode.CANCELLED));
+    return true;
+  }
+
+  @Override
+  public synchronized boolean isCancelled() {
+    return cancelled;
+  }
+
+  @Override
+  public boolean isDone() {
+    return latch.getCount() == 0;
+  }
+}
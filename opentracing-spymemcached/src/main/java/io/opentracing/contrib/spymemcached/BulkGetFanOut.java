@@ -0,0 +1,293 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import io.opentracing.Span;
+import io.opentracing.noop.NoopSpan;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import net.spy.memcached.CachedData;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.NodeLocator;
+import net.spy.memcached.internal.BulkFuture;
+import net.spy.memcached.internal.BulkGetCompletionListener;
+import net.spy.memcached.internal.BulkGetFuture;
+import net.spy.memcached.ops.KeyedOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Bulk get of a traced call split by primary node through the client's {@link NodeLocator}, as
+ * spymemcached splits it into one operation per node, but sent as one bulk get per node with its
+ * own child span. The values of the nodes are combined into the one future returned to the
+ * caller, so the slowest node can be told apart from the others. Spans and node statistics name
+ * the node whose operation actually read the keys, which spymemcached may have redistributed away
+ * from an inactive primary node.
+ */
+class BulkGetFanOut<T> {
+
+  private final TracingHelper helper;
+  private final TracedOperation operation;
+  private final Map<String, Future<T>> values = new ConcurrentHashMap<>();
+  private final Collection<Operation> operations = new ArrayList<>();
+  private final CountDownLatch latch;
+  private final AtomicInteger pending;
+  private final BulkGetFuture<T> future;
+  /**
+   * First status of a node that did not serve its keys, reported as the status of the call
+   */
+  private volatile OperationStatus failure;
+
+  private BulkGetFanOut(TracingHelper helper, TracedOperation operation, int nodeCount,
+      ExecutorService executorService) {
+    this.helper = helper;
+    this.operation = operation;
+    this.latch = new CountDownLatch(nodeCount);
+    this.pending = new AtomicInteger(nodeCount);
+    this.future = new BulkGetFuture<>(values, operations, latch, executorService);
+  }
+
+  /**
+   * @param bulkGet untraced bulk get of the client
+   * @return one future for the bulk gets of all nodes
+   */
+  static <T> BulkFuture<Map<String, T>> asyncGetBulk(TracingHelper helper,
+      TracedOperation operation, NodeLocator locator, GetBatcher.BulkGet bulkGet,
+      Collection<String> keys, Iterator<Transcoder<T>> transcoders,
+      ExecutorService executorService) {
+    Map<MemcachedNode, NodeGet<T>> nodeGets = new LinkedHashMap<>();
+    for (String key : keys) {
+      MemcachedNode node = locator.getPrimary(key);
+      NodeGet<T> nodeGet = nodeGets.get(node);
+      if (nodeGet == null) {
+        nodeGet = new NodeGet<>();
+        nodeGets.put(node, nodeGet);
+      }
+      nodeGet.keys.add(key);
+      AtomicLong bytes = nodeGet.bytes.get(key);
+      if (bytes == null) {
+        bytes = new AtomicLong();
+        nodeGet.bytes.put(key, bytes);
+      }
+      nodeGet.transcoders.add(new CountingTranscoder<>(transcoders.next(), bytes));
+    }
+    BulkGetFanOut<T> fanOut = new BulkGetFanOut<>(helper, operation, nodeGets.size(),
+        executorService);
+    if (nodeGets.isEmpty()) {
+      fanOut.future.signalComplete();
+      return fanOut.future;
+    }
+    for (Map.Entry<MemcachedNode, NodeGet<T>> entry : nodeGets.entrySet()) {
+      fanOut.send(entry.getKey().getSocketAddress(), entry.getValue(), bulkGet);
+    }
+    return fanOut.future;
+  }
+
+  private void send(final SocketAddress node, final NodeGet<T> nodeGet,
+      GetBatcher.BulkGet bulkGet) {
+    final long startNanos = System.nanoTime();
+    final long startEpochMicros = System.currentTimeMillis() * 1000;
+    BulkFuture<Map<String, T>> nodeFuture =
+        bulkGet.asyncGetBulk(nodeGet.keys, nodeGet.transcoders.iterator());
+    Object nodeOperations = FutureOperations.operations(nodeFuture);
+    if (nodeOperations instanceof Collection) {
+      for (Object nodeOperation : (Collection<?>) nodeOperations) {
+        operations.add((Operation) nodeOperation);
+      }
+    }
+    nodeFuture.addListener(new BulkGetCompletionListener() {
+      @Override
+      public void onComplete(BulkGetFuture<?> completed) {
+        completed(node, nodeGet, completed, startNanos, startEpochMicros);
+      }
+    });
+  }
+
+  /**
+   * Called on spymemcached's listener executor when the bulk get of a node completed
+   */
+  @SuppressWarnings("unchecked")
+  private void completed(SocketAddress primary, NodeGet<T> nodeGet, BulkGetFuture<?> completed,
+      long startNanos, long startEpochMicros) {
+    long nanos = System.nanoTime() - startNanos;
+    Map<String, Future<?>> nodeValues = FutureOperations.values(completed);
+    if (nodeValues != null) {
+      for (Map.Entry<String, Future<?>> entry : nodeValues.entrySet()) {
+        values.put(entry.getKey(), (Future<T>) entry.getValue());
+      }
+    }
+    OperationStatus status = completed.getStatus();
+    boolean failed = TracedOperation.isFailure(status);
+    if (failed && failure == null) {
+      failure = status;
+    }
+    Map<SocketAddress, NodeRead> reads = reads(primary, nodeGet.keys, completed);
+    for (Map.Entry<SocketAddress, NodeRead> entry : reads.entrySet()) {
+      NodeRead read = entry.getValue();
+      // without failed operations, a failed status is only known for the whole node get
+      boolean nodeFailed = read.failed || failed && reads.size() == 1;
+      OperationStatus nodeStatus = nodeFailed == failed ? status : null;
+      record(entry.getKey(), read, nodeFailed, nodeGet, nodeValues, nodeStatus, nanos,
+          startEpochMicros);
+    }
+    if (pending.decrementAndGet() == 0) {
+      future.setStatus(failure == null ? status : failure);
+      latch.countDown();
+      future.signalComplete();
+    } else {
+      latch.countDown();
+    }
+  }
+
+  /**
+   * Records the latency of the node and finishes the child span of the keys it read
+   *
+   * @param status status tagged on the span, <code>null</code> if not known for this node
+   */
+  private void record(SocketAddress node, NodeRead read, boolean failed, NodeGet<T> nodeGet,
+      Map<String, Future<?>> nodeValues, OperationStatus status, long nanos,
+      long startEpochMicros) {
+    Span span = helper.buildChildSpan(operation.getName(), operation.getSpan(), node,
+        startEpochMicros);
+    MemcachedClientMetrics metrics = helper.getMetrics();
+    metrics.recordNodeLatency(node, nanos, failed);
+    CircuitBreaker circuitBreaker = metrics.getCircuitBreaker();
+    if (circuitBreaker != null) {
+      circuitBreaker.record(node, null, nanos, failed, span);
+    }
+    if (span == NoopSpan.INSTANCE) {
+      return;
+    }
+    int found = 0;
+    long bytes = 0;
+    for (String key : read.keys) {
+      if (nodeValues != null && nodeValues.containsKey(key)) {
+        found++;
+      }
+      AtomicLong keyBytes = nodeGet.bytes.get(key);
+      if (keyBytes != null) {
+        bytes += keyBytes.get();
+      }
+    }
+    span.setTag("keys.count", read.keys.size());
+    span.setTag("keys.found", nodeValues == null ? -1 : found);
+    span.setTag("payload.bytes", bytes);
+    if (status != null) {
+      TracingHelper.setStatus(span, status);
+    }
+    helper.finishSpan(span, startEpochMicros + nanos / 1000);
+  }
+
+  /**
+   * @return the keys of a node get by the node whose operation read them, the primary node unless
+   * spymemcached redistributed them, or only the primary node if the operations are not known
+   */
+  private static Map<SocketAddress, NodeRead> reads(SocketAddress primary, List<String> keys,
+      BulkGetFuture<?> completed) {
+    Map<SocketAddress, NodeRead> reads = new LinkedHashMap<>();
+    Object operations = FutureOperations.operations(completed);
+    if (operations instanceof Collection) {
+      for (Object nodeOperation : (Collection<?>) operations) {
+        if (!(nodeOperation instanceof KeyedOperation)) {
+          continue;
+        }
+        Operation op = (Operation) nodeOperation;
+        MemcachedNode handling = op.getHandlingNode();
+        SocketAddress node = handling == null ? primary : handling.getSocketAddress();
+        NodeRead read = reads.get(node);
+        if (read == null) {
+          read = new NodeRead();
+          reads.put(node, read);
+        }
+        read.keys.addAll(((KeyedOperation) op).getKeys());
+        read.failed |= op.hasErrored() || op.isTimedOut() || op.isCancelled();
+      }
+    }
+    if (reads.isEmpty()) {
+      NodeRead read = new NodeRead();
+      read.keys.addAll(keys);
+      reads.put(primary, read);
+    }
+    return reads;
+  }
+
+  private static class NodeGet<T> {
+
+    private final List<String> keys = new ArrayList<>();
+    private final List<Transcoder<T>> transcoders = new ArrayList<>();
+    /**
+     * Size of the value received for each key
+     */
+    private final Map<String, AtomicLong> bytes = new HashMap<>();
+  }
+
+  /**
+   * Keys of a node get read by one node
+   */
+  private static class NodeRead {
+
+    private final Collection<String> keys = new LinkedHashSet<>();
+    private boolean failed;
+  }
+
+  /**
+   * Counts the size of the values received from a node when spymemcached checks them for
+   * asynchronous decoding, on the IO thread, whether they are decoded later or never
+   */
+  private static class CountingTranscoder<T> implements Transcoder<T> {
+
+    private final Transcoder<T> transcoder;
+    private final AtomicLong bytes;
+
+    CountingTranscoder(Transcoder<T> transcoder, AtomicLong bytes) {
+      this.transcoder = transcoder;
+      this.bytes = bytes;
+    }
+
+    @Override
+    public boolean asyncDecode(CachedData data) {
+      bytes.addAndGet(data.getData().length);
+      return transcoder.asyncDecode(data);
+    }
+
+    @Override
+    public CachedData encode(T object) {
+      return transcoder.encode(object);
+    }
+
+    @Override
+    public T decode(CachedData data) {
+      return transcoder.decode(data);
+    }
+
+    @Override
+    public int getMaxSize() {
+      return transcoder.getMaxSize();
+    }
+  }
+}
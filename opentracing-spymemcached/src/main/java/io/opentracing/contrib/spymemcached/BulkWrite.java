@@ -0,0 +1,214 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import io.opentracing.Span;
+import io.opentracing.noop.NoopSpan;
+import java.net.SocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.spy.memcached.ops.DeleteOperation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.ops.StoreOperation;
+
+/**
+ * One bulk write call: the keys are grouped by node, every node gets a child span of the call's
+ * span, and the call finishes when the write of every key completed. Completions are reported on
+ * spymemcached's IO thread, so only counters, spans and the near cache are updated there, and the
+ * call is finished on the listener executor like single key writes.
+ */
+class BulkWrite {
+
+  /**
+   * Called on spymemcached's IO thread when memcached answered the write of a key
+   */
+  interface KeyListener {
+
+    void written(String key);
+  }
+
+  private static final OperationStatus NO_STATUS =
+      new OperationStatus(false, "NO_STATUS", StatusCode.ERR_INTERNAL);
+
+  private final TracingHelper helper;
+  private final TracedOperation operation;
+  private final String operationName;
+  private final BulkWriteFuture future;
+  private final ExecutorService listenerExecutor;
+  private final KeyListener keyListener;
+  private final AtomicInteger pending;
+  private final AtomicInteger failedKeys = new AtomicInteger();
+  /**
+   * First status of a key that the node did not serve, reported as the status of the call
+   */
+  private volatile OperationStatus failure;
+
+  /**
+   * @param keyListener listener of the written keys, <code>null</code> if there is none
+   */
+  BulkWrite(TracingHelper helper, TracedOperation operation, String operationName, int keyCount,
+      long operationTimeout, ExecutorService listenerExecutor, KeyListener keyListener) {
+    this.helper = helper;
+    this.operation = operation;
+    this.operationName = operationName;
+    this.future = new BulkWriteFuture(keyCount, operationTimeout);
+    this.listenerExecutor = listenerExecutor;
+    this.keyListener = keyListener;
+    this.pending = new AtomicInteger(keyCount);
+  }
+
+  BulkWriteFuture getFuture() {
+    return future;
+  }
+
+  /**
+   * @return the writes to the node, whose keys must all get their callback before it is started
+   */
+  NodeWrite node(SocketAddress node) {
+    return new NodeWrite(node);
+  }
+
+  /**
+   * Completes the key without sending it
+   */
+  void skip(String key, OperationStatus status) {
+    completed(key, status);
+  }
+
+  private void completed(String key, OperationStatus status) {
+    if (!status.isSuccess()) {
+      failedKeys.incrementAndGet();
+    }
+    if (TracedOperation.isFailure(status) && failure == null) {
+      failure = status;
+    }
+    if (pending.decrementAndGet() == 0) {
+      try {
+        listenerExecutor.execute(new Runnable() {
+          @Override
+          public void run() {
+            finish();
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        finish();
+      }
+    }
+    future.completed(key, status);
+  }
+
+  private void finish() {
+    operation.getSpan().setTag("keys.failed", failedKeys.get());
+    OperationStatus failed = failure;
+    if (failed == null) {
+      operation.finish();
+    } else {
+      operation.finish(failed);
+    }
+  }
+
+  class NodeWrite {
+
+    private final SocketAddress node;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger failedKeys = new AtomicInteger();
+    private volatile boolean failed;
+    private Span span;
+    private long startNanos;
+    private long startEpochMicros;
+
+    NodeWrite(SocketAddress node) {
+      this.node = node;
+    }
+
+    KeyCallback callback(String key) {
+      pending.incrementAndGet();
+      return new KeyCallback(this, key);
+    }
+
+    /**
+     * Called right before the operations of the node are queued, which publishes the span to the
+     * IO thread
+     */
+    void start() {
+      span = helper.buildChildSpan(operationName, operation.getSpan(), node);
+      span.setTag("keys.count", pending.get());
+      startNanos = System.nanoTime();
+      startEpochMicros = System.currentTimeMillis() * 1000;
+    }
+
+    private void completed(OperationStatus status) {
+      if (!status.isSuccess()) {
+        failedKeys.incrementAndGet();
+      }
+      failed |= TracedOperation.isFailure(status);
+      if (pending.decrementAndGet() > 0) {
+        return;
+      }
+      long nanos = System.nanoTime() - startNanos;
+      MemcachedClientMetrics metrics = helper.getMetrics();
+      metrics.recordNodeLatency(node, nanos, failed);
+      CircuitBreaker circuitBreaker = metrics.getCircuitBreaker();
+      if (circuitBreaker != null) {
+        circuitBreaker.record(node, null, nanos, failed, span);
+      }
+      if (span != NoopSpan.INSTANCE) {
+        span.setTag("keys.failed", failedKeys.get());
+        helper.finishSpan(span, startEpochMicros + nanos / 1000);
+      }
+    }
+  }
+
+  /**
+   * Callback of the operation of one key, accepted by store, delete and touch operations
+   */
+  class KeyCallback implements StoreOperation.Callback, DeleteOperation.Callback {
+
+    private final NodeWrite nodeWrite;
+    private final String key;
+    private OperationStatus status;
+
+    KeyCallback(NodeWrite nodeWrite, String key) {
+      this.nodeWrite = nodeWrite;
+      this.key = key;
+    }
+
+    @Override
+    public void receivedStatus(OperationStatus status) {
+      this.status = status;
+    }
+
+    @Override
+    public void gotData(String key, long cas) {
+    }
+
+    @Override
+    public void gotData(long cas) {
+    }
+
+    @Override
+    public void complete() {
+      if (status == null) {
+        status = NO_STATUS;
+      }
+      nodeWrite.completed(status);
+      if (keyListener != null) {
+        keyListener.written(key);
+      }
+      BulkWrite.this.completed(key, status);
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import net.spy.memcached.MemcachedConnection;
+import net.spy.memcached.internal.CheckedOperationTimeoutException;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+
+/**
+ * Result of a bulk write: whether the write of each key succeeded, like the <code>Boolean</code>
+ * of a single key write, and the status of each key.
+ */
+public class BulkWriteFuture implements Future<Map<String, Boolean>> {
+
+  private final CountDownLatch latch;
+  private final long operationTimeout;
+  private final Queue<Operation> operations = new ConcurrentLinkedQueue<>();
+  private final ConcurrentMap<String, OperationStatus> statuses = new ConcurrentHashMap<>();
+  private volatile boolean cancelled;
+
+  BulkWriteFuture(int keyCount, long operationTimeout) {
+    this.latch = new CountDownLatch(keyCount);
+    this.operationTimeout = operationTimeout;
+  }
+
+  void addOperation(Operation operation) {
+    operations.add(operation);
+  }
+
+  void completed(String key, OperationStatus status) {
+    statuses.put(key, status);
+    latch.countDown();
+  }
+
+  /**
+   * Waits up to the client's operation timeout, like the future of a single key write
+   */
+  @Override
+  public Map<String, Boolean> get() throws InterruptedException, ExecutionException {
+    try {
+      return get(operationTimeout, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      throw new RuntimeException("Timed out waiting for bulk write", e);
+    }
+  }
+
+  /**
+   * @throws CheckedOperationTimeoutException with the operations that did not complete in time
+   */
+  @Override
+  public Map<String, Boolean> get(long duration, TimeUnit units)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    if (!latch.await(duration, units)) {
+      Collection<Operation> timedOut = new ArrayList<>();
+      for (Operation operation : operations) {
+        if (operation.getState() != OperationState.COMPLETE) {
+          MemcachedConnection.opTimedOut(operation);
+          timedOut.add(operation);
+        } else {
+          MemcachedConnection.opSucceeded(operation);
+        }
+      }
+      throw new CheckedOperationTimeoutException("Timed out waiting for bulk write", timedOut);
+    }
+    if (cancelled) {
+      throw new ExecutionException(new CancellationException("Cancelled"));
+    }
+    Map<String, Boolean> results = new HashMap<>();
+    for (Map.Entry<String, OperationStatus> entry : statuses.entrySet()) {
+      results.put(entry.getKey(), entry.getValue().isSuccess());
+    }
+    return results;
+  }
+
+  /**
+   * @return status of every key whose write completed so far
+   */
+  public Map<String, OperationStatus> getStatuses() {
+    return new HashMap<>(statuses);
+  }
+
+  /**
+   * Cancels the writes that did not complete yet
+   */
+  @Override
+  public boolean cancel(boolean ign) {
+    cancelled = true;
+    for (Operation operation : operations) {
+      operation.cancel();
+    }
+    return true;
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  @Override
+  public boolean isDone() {
+    return latch.getCount() == 0;
+  }
+}
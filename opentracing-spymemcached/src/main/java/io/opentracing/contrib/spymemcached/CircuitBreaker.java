@@ -0,0 +1,192 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import io.opentracing.Span;
+import java.net.SocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Circuit breakers of the nodes, driven by the latency and failures of the operations sent to
+ * them. A node's circuit opens when, within a window, enough operations completed and the share of
+ * failed or slow ones reaches the threshold. After the open duration one operation is let through
+ * and its outcome alone closes or opens the circuit again, whatever other operations report.
+ * Transitions are logged on the span of the operation causing them.
+ */
+class CircuitBreaker {
+
+  private final double failureRate;
+  private final long slowCallNanos;
+  private final int minimumCalls;
+  private final long windowNanos;
+  private final long openNanos;
+  private final ConcurrentMap<SocketAddress, Circuit> circuits = new ConcurrentHashMap<>();
+
+  CircuitBreaker(double failureRate, long slowCallNanos, int minimumCalls, long windowNanos,
+      long openNanos) {
+    this.failureRate = failureRate;
+    this.slowCallNanos = slowCallNanos;
+    this.minimumCalls = minimumCalls;
+    this.windowNanos = windowNanos;
+    this.openNanos = openNanos;
+  }
+
+  /**
+   * @return the circuit breaker or <code>null</code> if it is disabled
+   */
+  static CircuitBreaker create(TracingConfiguration configuration) {
+    if (configuration.getCircuitBreakerFailureRate() == 0) {
+      return null;
+    }
+    return new CircuitBreaker(configuration.getCircuitBreakerFailureRate(),
+        configuration.getCircuitBreakerSlowCallNanos(),
+        configuration.getCircuitBreakerMinimumCalls(),
+        configuration.getCircuitBreakerWindowNanos(),
+        configuration.getCircuitBreakerOpenNanos());
+  }
+
+  /**
+   * @param operation the operation, remembered as the probe of the node if it is let through while
+   * the circuit is not closed
+   * @param span span of the operation, on which the transition to half-open is logged if it is the
+   * one probing the node
+   * @return <code>true</code> if the operation may be sent to the node
+   */
+  boolean allows(SocketAddress node, Object operation, Span span) {
+    Circuit circuit = circuits.get(node);
+    return circuit == null || circuit.state == CircuitState.CLOSED
+        || circuit.allows(System.nanoTime(), operation, span);
+  }
+
+  /**
+   * @return <code>true</code> if operations must not be sent to the node, without probing it
+   */
+  boolean isOpen(SocketAddress node) {
+    Circuit circuit = circuits.get(node);
+    return circuit != null && circuit.state != CircuitState.CLOSED;
+  }
+
+  /**
+   * Called when an operation sent to the node completes
+   *
+   * @param operation the operation as passed to {@link #allows}, <code>null</code> if it was sent
+   * without asking, in which case it never decides a half-open circuit
+   */
+  void record(SocketAddress node, Object operation, long nanos, boolean failed, Span span) {
+    circuit(node).record(System.nanoTime(), operation, failed || nanos >= slowCallNanos, span);
+  }
+
+  Map<SocketAddress, CircuitState> states() {
+    Map<SocketAddress, CircuitState> states = new HashMap<>();
+    for (Map.Entry<SocketAddress, Circuit> entry : circuits.entrySet()) {
+      states.put(entry.getKey(), entry.getValue().state);
+    }
+    return states;
+  }
+
+  private Circuit circuit(SocketAddress node) {
+    Circuit circuit = circuits.get(node);
+    if (circuit == null) {
+      Circuit created = new Circuit();
+      circuit = circuits.putIfAbsent(node, created);
+      if (circuit == null) {
+        circuit = created;
+      }
+    }
+    return circuit;
+  }
+
+  private class Circuit {
+
+    /**
+     * Read without locking to let operations of closed circuits through
+     */
+    private volatile CircuitState state = CircuitState.CLOSED;
+    private long windowStartNanos = System.nanoTime();
+    private int calls;
+    private int badCalls;
+    /**
+     * {@link System#nanoTime()} at which the circuit opened or the last probe was let through
+     */
+    private long openedNanos;
+    /**
+     * Operation whose outcome decides the half-open circuit
+     */
+    private Object probe;
+
+    synchronized boolean allows(long nanos, Object operation, Span span) {
+      if (state == CircuitState.CLOSED) {
+        return true;
+      }
+      if (nanos - openedNanos < openNanos) {
+        return false;
+      }
+      // also lets another probe through if the previous one never reported back
+      openedNanos = nanos;
+      probe = operation;
+      if (state == CircuitState.OPEN) {
+        state = CircuitState.HALF_OPEN;
+        span.log("circuit.half_open");
+      }
+      return true;
+    }
+
+    synchronized void record(long nanos, Object operation, boolean bad, Span span) {
+      switch (state) {
+        case CLOSED:
+          if (nanos - windowStartNanos > windowNanos) {
+            windowStartNanos = nanos;
+            calls = 0;
+            badCalls = 0;
+          }
+          calls++;
+          if (bad) {
+            badCalls++;
+          }
+          if (calls >= minimumCalls && badCalls >= failureRate * calls) {
+            open(nanos, span);
+          }
+          break;
+        case HALF_OPEN:
+          if (operation == null || operation != probe) {
+            // the probe alone decides
+            break;
+          }
+          probe = null;
+          if (bad) {
+            open(nanos, span);
+          } else {
+            state = CircuitState.CLOSED;
+            windowStartNanos = nanos;
+            calls = 0;
+            badCalls = 0;
+            span.log("circuit.closed");
+          }
+          break;
+        default:
+          // operations sent before the circuit opened
+      }
+    }
+
+    private void open(long nanos, Span span) {
+      state = CircuitState.OPEN;
+      probe = null;
+      openedNanos = nanos;
+      span.log("circuit.open");
+    }
+  }
+}
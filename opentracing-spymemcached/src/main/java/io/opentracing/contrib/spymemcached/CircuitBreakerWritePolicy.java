@@ -0,0 +1,29 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+/**
+ * Controls what happens to writes for a node whose circuit is open.
+ */
+public enum CircuitBreakerWritePolicy {
+  /**
+   * Writes are not sent and their future completes immediately with <code>false</code>
+   */
+  DROP,
+  /**
+   * Writes are left in spymemcached's queue of the node, to be sent when it keeps up again or to
+   * time out
+   */
+  QUEUE
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+/**
+ * State of the circuit breaker of a node.
+ */
+public enum CircuitState {
+  /**
+   * Operations are sent to the node
+   */
+  CLOSED,
+  /**
+   * Too many recent operations of the node failed or were slow: reads are answered as misses and
+   * writes follow the {@link CircuitBreakerWritePolicy} without waiting for the node
+   */
+  OPEN,
+  /**
+   * The open duration elapsed and a single operation is sent to the node to find out whether it
+   * recovered
+   */
+  HALF_OPEN
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+/**
+ * Load of the threads that complete asynchronous operations: spymemcached's listener executor,
+ * which runs the tracing listeners along with the application's, and the optional span finishing
+ * queue.
+ */
+public class CompletionStats {
+
+  private final int listenerQueueDepth;
+  private final int listenerActiveThreads;
+  private final int listenerPoolSize;
+  private final LatencySnapshot listenerTime;
+  private final int pendingSpans;
+  private final long droppedSpans;
+
+  CompletionStats(int listenerQueueDepth, int listenerActiveThreads, int listenerPoolSize,
+      LatencySnapshot listenerTime, int pendingSpans, long droppedSpans) {
+    this.listenerQueueDepth = listenerQueueDepth;
+    this.listenerActiveThreads = listenerActiveThreads;
+    this.listenerPoolSize = listenerPoolSize;
+    this.listenerTime = listenerTime;
+    this.pendingSpans = pendingSpans;
+    this.droppedSpans = droppedSpans;
+  }
+
+  /**
+   * @return listener tasks waiting for a thread, <code>-1</code> if the executor is not a {@link
+   * java.util.concurrent.ThreadPoolExecutor}
+   */
+  public int getListenerQueueDepth() {
+    return listenerQueueDepth;
+  }
+
+  /**
+   * @return listener threads running a task, <code>-1</code> if not known
+   */
+  public int getListenerActiveThreads() {
+    return listenerActiveThreads;
+  }
+
+  /**
+   * @return current number of listener threads, <code>-1</code> if not known
+   */
+  public int getListenerPoolSize() {
+    return listenerPoolSize;
+  }
+
+  /**
+   * @return time in nanoseconds spent in the tracing listeners per completed operation
+   */
+  public LatencySnapshot getListenerTime() {
+    return listenerTime;
+  }
+
+  /**
+   * @return spans waiting to be finished, <code>0</code> without span finishing queue
+   */
+  public int getPendingSpans() {
+    return pendingSpans;
+  }
+
+  /**
+   * @return spans dropped because the span finishing queue was full
+   */
+  public long getDroppedSpans() {
+    return droppedSpans;
+  }
+
+  @Override
+  public String toString() {
+    return "{listenerQueueDepth=" + listenerQueueDepth + ", listenerActiveThreads="
+        + listenerActiveThreads + ", pendingSpans=" + pendingSpans + ", droppedSpans="
+        + droppedSpans + "}";
+  }
+}
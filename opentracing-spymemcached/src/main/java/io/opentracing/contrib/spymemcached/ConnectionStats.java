@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import java.net.SocketAddress;
+
+/**
+ * Connection history of one node since the client was created.
+ */
+public class ConnectionStats {
+
+  private final SocketAddress node;
+  private final boolean connected;
+  private final long reconnects;
+  private final long unavailableNanos;
+  private final LatencySnapshot reconnectTime;
+
+  ConnectionStats(SocketAddress node, boolean connected, long reconnects, long unavailableNanos,
+      LatencySnapshot reconnectTime) {
+    this.node = node;
+    this.connected = connected;
+    this.reconnects = reconnects;
+    this.unavailableNanos = unavailableNanos;
+    this.reconnectTime = reconnectTime;
+  }
+
+  public SocketAddress getNode() {
+    return node;
+  }
+
+  /**
+   * @return <code>false</code> if the connection was lost and not established again yet
+   */
+  public boolean isConnected() {
+    return connected;
+  }
+
+  /**
+   * @return number of times the connection was established again after it was lost
+   */
+  public long getReconnects() {
+    return reconnects;
+  }
+
+  /**
+   * @return total time in nanoseconds the node was disconnected, including the current outage
+   */
+  public long getUnavailableNanos() {
+    return unavailableNanos;
+  }
+
+  /**
+   * @return durations in nanoseconds from losing the connection until it was established again
+   */
+  public LatencySnapshot getReconnectTime() {
+    return reconnectTime;
+  }
+
+  @Override
+  public String toString() {
+    return node + "{connected=" + connected + ", reconnects=" + reconnects
+        + ", unavailableNanos=" + unavailableNanos + "}";
+  }
+}
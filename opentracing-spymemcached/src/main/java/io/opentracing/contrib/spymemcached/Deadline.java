@@ -0,0 +1,107 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import io.opentracing.Scope;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time after which the caller no longer needs a result. Synchronous reads of the tracing
+ * client made while a deadline is active wait at most until the deadline instead of the whole
+ * operation timeout.
+ *
+ * <pre>
+ * try (Scope ignore = Deadline.after(5, TimeUnit.MILLISECONDS).activate()) {
+ *   client.get("key");
+ * }
+ * </pre>
+ */
+public final class Deadline {
+
+  private static final ThreadLocal<Deadline> ACTIVE = new ThreadLocal<>();
+
+  private final long nanoTime;
+
+  private Deadline(long nanoTime) {
+    this.nanoTime = nanoTime;
+  }
+
+  public static Deadline after(long timeout, TimeUnit unit) {
+    return new Deadline(System.nanoTime() + unit.toNanos(timeout));
+  }
+
+  /**
+   * @param epochMillis deadline as milliseconds since the epoch, like when it is received from
+   * another process
+   */
+  public static Deadline atEpochMillis(long epochMillis) {
+    return after(epochMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @return the deadline activated on the current thread, or <code>null</code> if there is none
+   */
+  public static Deadline active() {
+    return ACTIVE.get();
+  }
+
+  /**
+   * Makes this deadline the active one of the current thread until the returned scope is closed,
+   * when the previous one is restored.
+   */
+  public Scope activate() {
+    final Deadline previous = ACTIVE.get();
+    ACTIVE.set(this);
+    return new Scope() {
+      @Override
+      public void close() {
+        if (previous == null) {
+          ACTIVE.remove();
+        } else {
+          ACTIVE.set(previous);
+        }
+      }
+    };
+  }
+
+  /**
+   * @return time left until the deadline, negative once it passed
+   */
+  public long remainingNanos() {
+    return nanoTime - System.nanoTime();
+  }
+
+  public boolean isExpired() {
+    return remainingNanos() <= 0;
+  }
+
+  /**
+   * @return the deadline as milliseconds since the epoch, to propagate it to another process
+   */
+  public long toEpochMillis() {
+    return System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(remainingNanos());
+  }
+
+  /**
+   * @return the earlier of both deadlines
+   */
+  Deadline min(Deadline other) {
+    return other == null || nanoTime - other.nanoTime <= 0 ? this : other;
+  }
+
+  @Override
+  public String toString() {
+    return "Deadline in " + remainingNanos() + " ns";
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import net.spy.memcached.CASResponse;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+
+/**
+ * Completed future of a write that was not sent because the circuit of its node is open. Like a
+ * failed write, it returns <code>false</code>, <code>-1</code> for counters and {@link
+ * CASResponse#NOT_FOUND} for CAS.
+ */
+class DroppedWriteFuture<T> extends OperationFuture<T> {
+
+  static final OperationStatus STATUS =
+      new OperationStatus(false, "CIRCUIT_OPEN", StatusCode.CANCELLED);
+
+  DroppedWriteFuture(String key, T value, ExecutorService executorService) {
+    super(key, new CountDownLatch(0), 0, executorService);
+    set(value, STATUS);
+  }
+
+  /**
+   * Deprecated in {@link OperationFuture}, but still reached through {@link
+   * java.util.concurrent.Future#cancel}, where the inherited method would fail on the missing
+   * operation
+   */
+  @Override
+  @SuppressWarnings("deprecation")
+  public boolean cancel(boolean ign) {
+    return false;
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return false;
+  }
+
+  @Override
+  public boolean isDone() {
+    return true;
+  }
+}
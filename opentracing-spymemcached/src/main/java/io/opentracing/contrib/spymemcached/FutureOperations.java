@@ -0,0 +1,155 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import net.spy.memcached.internal.BulkGetFuture;
+import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.ops.KeyedOperation;
+import net.spy.memcached.ops.Operation;
+
+/**
+ * Access to the operations behind spymemcached's futures, which keep them in private fields.
+ */
+class FutureOperations {
+
+  private static final Field OPERATION_FUTURE_OP = field(OperationFuture.class, "op");
+  private static final Field GET_FUTURE_RV = field(GetFuture.class, "rv");
+  private static final Field BULK_GET_FUTURE_OPS = field(BulkGetFuture.class, "ops");
+  private static final Field OPERATION_FUTURE_OBJ_REF = field(OperationFuture.class, "objRef");
+  private static final Field BULK_GET_FUTURE_RV_MAP = field(BulkGetFuture.class, "rvMap");
+
+  private FutureOperations() {
+  }
+
+  /**
+   * @return the {@link Operation}, the collection of operations of a bulk get, or
+   * <code>null</code> if not accessible
+   */
+  static Object operations(Future<?> future) {
+    try {
+      if (future instanceof OperationFuture && OPERATION_FUTURE_OP != null) {
+        return OPERATION_FUTURE_OP.get(future);
+      }
+      if (future instanceof GetFuture && GET_FUTURE_RV != null) {
+        return operations((Future<?>) GET_FUTURE_RV.get(future));
+      }
+      if (future instanceof BulkGetFuture && BULK_GET_FUTURE_OPS != null) {
+        return BULK_GET_FUTURE_OPS.get(future);
+      }
+    } catch (IllegalAccessException | RuntimeException ignore) {
+    }
+    return null;
+  }
+
+  /**
+   * @return number of values received by a completed get or bulk get, without decoding them, or
+   * <code>-1</code> if not accessible
+   */
+  static int found(Future<?> future) {
+    if (future instanceof BatchedGetFuture) {
+      return ((BatchedGetFuture<?>) future).found();
+    }
+    try {
+      if (future instanceof OperationFuture && OPERATION_FUTURE_OBJ_REF != null) {
+        return ((AtomicReference<?>) OPERATION_FUTURE_OBJ_REF.get(future)).get() == null ? 0 : 1;
+      }
+      if (future instanceof GetFuture && GET_FUTURE_RV != null) {
+        return found((Future<?>) GET_FUTURE_RV.get(future));
+      }
+      if (future instanceof BulkGetFuture && BULK_GET_FUTURE_RV_MAP != null) {
+        return ((Map<?, ?>) BULK_GET_FUTURE_RV_MAP.get(future)).size();
+      }
+    } catch (IllegalAccessException | RuntimeException ignore) {
+    }
+    return -1;
+  }
+
+  static boolean canReadValues() {
+    return BULK_GET_FUTURE_RV_MAP != null;
+  }
+
+  /**
+   * @return futures of the values received by a completed bulk get, by key, or <code>null</code>
+   * if not accessible
+   */
+  @SuppressWarnings("unchecked")
+  static Map<String, Future<?>> values(BulkGetFuture<?> future) {
+    try {
+      if (BULK_GET_FUTURE_RV_MAP != null) {
+        return (Map<String, Future<?>>) BULK_GET_FUTURE_RV_MAP.get(future);
+      }
+    } catch (IllegalAccessException | RuntimeException ignore) {
+    }
+    return null;
+  }
+
+  /**
+   * @return number of keys of the operations or <code>-1</code> if not known
+   */
+  static int keyCount(Object operations) {
+    if (operations instanceof KeyedOperation) {
+      return ((KeyedOperation) operations).getKeys().size();
+    }
+    if (!(operations instanceof Collection)) {
+      return -1;
+    }
+    int count = 0;
+    for (Object operation : (Collection<?>) operations) {
+      if (!(operation instanceof KeyedOperation)) {
+        return -1;
+      }
+      count += ((KeyedOperation) operation).getKeys().size();
+    }
+    return count;
+  }
+
+  /**
+   * @return {@link System#nanoTime()} at which the last of the operations was written, or
+   * <code>0</code> if not written
+   */
+  static long writtenNanos(Object operations) {
+    if (operations instanceof Operation) {
+      return ((Operation) operations).getWriteCompleteTimestamp();
+    }
+    long written = 0;
+    if (operations instanceof Collection) {
+      for (Object operation : (Collection<?>) operations) {
+        long nanos = ((Operation) operation).getWriteCompleteTimestamp();
+        if (nanos == 0) {
+          return 0;
+        }
+        if (written == 0 || nanos - written > 0) {
+          written = nanos;
+        }
+      }
+    }
+    return written;
+  }
+
+  private static Field field(Class<?> type, String name) {
+    try {
+      Field field = type.getDeclaredField(name);
+      field.setAccessible(true);
+      return field;
+    } catch (NoSuchFieldException | RuntimeException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import io.opentracing.Span;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import net.spy.memcached.CachedData;
+import net.spy.memcached.internal.BulkFuture;
+import net.spy.memcached.internal.BulkGetCompletionListener;
+import net.spy.memcached.internal.BulkGetFuture;
+import net.spy.memcached.ops.KeyedOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.transcoders.Transcoder;
+import net.spy.memcached.util.StringUtils;
+
+/**
+ * Gathers the single key gets submitted within a short window into one bulk get, which spymemcached
+ * sends as one multi-key request per node, and completes each caller's future with its value. A
+ * batch is sent when its window elapsed or when it holds the maximum number of keys. Gets are
+ * batched per primary node, each with its own lock, so that callers reading different nodes do not
+ * wait for each other.
+ */
+class GetBatcher {
+
+  private static final OperationStatus FOUND =
+      new OperationStatus(true, "END", StatusCode.SUCCESS);
+  private static final OperationStatus NOT_FOUND =
+      new OperationStatus(false, "NOT_FOUND", StatusCode.ERR_NOT_FOUND);
+  /**
+   * Stands for the node of keys whose primary node is not known
+   */
+  private static final Object UNKNOWN_NODE = new Object();
+
+  /**
+   * Sends a bulk get without tracing it on its own
+   */
+  interface BulkGet {
+
+    <T> BulkFuture<Map<String, T>> asyncGetBulk(Collection<String> keys,
+        Iterator<Transcoder<T>> transcoders);
+  }
+
+  private final BulkGet bulkGet;
+  private final int maxBatchSize;
+  private final long windowNanos;
+  private final long operationTimeout;
+  private final boolean binary;
+  private final ExecutorService listenerExecutor;
+  private final ScheduledThreadPoolExecutor timer =
+      new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "memcached-get-batcher");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+  private final ConcurrentMap<Object, Stripe> stripes = new ConcurrentHashMap<>();
+
+  GetBatcher(BulkGet bulkGet, int maxBatchSize, long windowNanos, long operationTimeout,
+      boolean binary, ExecutorService listenerExecutor) {
+    this.bulkGet = bulkGet;
+    this.maxBatchSize = maxBatchSize;
+    this.windowNanos = windowNanos;
+    this.operationTimeout = operationTimeout;
+    this.binary = binary;
+    this.listenerExecutor = listenerExecutor;
+    timer.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * @return the batcher or <code>null</code> if get batching is disabled or the values of bulk gets
+   * cannot be read per key
+   */
+  static GetBatcher create(TracingConfiguration configuration, BulkGet bulkGet,
+      long operationTimeout, boolean binary, ExecutorService listenerExecutor) {
+    if (configuration.getGetBatchMaxSize() == 0 || !FutureOperations.canReadValues()) {
+      return null;
+    }
+    return new GetBatcher(bulkGet, configuration.getGetBatchMaxSize(),
+        configuration.getGetBatchWindowNanos(), operationTimeout, binary, listenerExecutor);
+  }
+
+  /**
+   * Adds the get to the current batch of its node. Gets of a key are batched together when they use
+   * the same transcoder, each reporting the value to its operation through its wrapped transcoder.
+   * The span is tagged with <code>batch.size</code> and <code>batch.wait.nanos</code> when the
+   * batch is sent.
+   *
+   * @param node primary node of the key, <code>null</code> if not known
+   * @param wrapped the transcoder or its {@link TracingTranscoder}
+   */
+  <T> BatchedGetFuture<T> add(String key, SocketAddress node, Transcoder<T> transcoder,
+      Transcoder<T> wrapped, Span span) {
+    StringUtils.validateKey(key, binary);
+    BatchedGetFuture<T> future = new BatchedGetFuture<>(key, operationTimeout, listenerExecutor);
+    Stripe stripe = stripe(node);
+    Batch conflicting = null;
+    Batch full = null;
+    synchronized (stripe) {
+      if (stripe.batch != null && stripe.batch.conflicts(key, transcoder)) {
+        conflicting = stripe.batch;
+        stripe.batch = null;
+      }
+      if (stripe.batch == null) {
+        stripe.batch = new Batch();
+        stripe.batch.timeout = schedule(stripe, stripe.batch);
+      }
+      Batch batch = stripe.batch;
+      batch.add(key, transcoder, new Waiter(future, wrapped, span));
+      if (batch.keys.size() >= maxBatchSize || batch.timeout == null) {
+        full = batch;
+        stripe.batch = null;
+      }
+    }
+    if (conflicting != null) {
+      send(conflicting);
+    }
+    if (full != null) {
+      send(full);
+    }
+    return future;
+  }
+
+  /**
+   * Stops the timer and sends the pending batches
+   */
+  void shutdown() {
+    timer.shutdownNow();
+    for (Stripe stripe : stripes.values()) {
+      Batch pending;
+      synchronized (stripe) {
+        pending = stripe.batch;
+        stripe.batch = null;
+      }
+      if (pending != null) {
+        send(pending);
+      }
+    }
+  }
+
+  private Stripe stripe(SocketAddress node) {
+    Object key = node == null ? UNKNOWN_NODE : node;
+    Stripe stripe = stripes.get(key);
+    if (stripe == null) {
+      Stripe created = new Stripe();
+      stripe = stripes.putIfAbsent(key, created);
+      if (stripe == null) {
+        stripe = created;
+      }
+    }
+    return stripe;
+  }
+
+  /**
+   * @return the timeout sending the batch when its window elapsed, <code>null</code> if the timer
+   * is stopped and the batch must be sent at once
+   */
+  private ScheduledFuture<?> schedule(Stripe stripe, Batch batch) {
+    try {
+      return timer.schedule(new Timeout(stripe, batch), windowNanos, TimeUnit.NANOSECONDS);
+    } catch (RejectedExecutionException e) {
+      return null;
+    }
+  }
+
+  private void send(final Batch batch) {
+    if (batch.timeout != null) {
+      batch.timeout.cancel(false);
+    }
+    long nowNanos = System.nanoTime();
+    List<String> keys = new ArrayList<>(batch.keys.size());
+    List<Transcoder<Object>> transcoders = new ArrayList<>(batch.keys.size());
+    for (Map.Entry<String, Key> entry : batch.keys.entrySet()) {
+      keys.add(entry.getKey());
+      transcoders.add(entry.getValue().reader());
+      for (Waiter waiter : entry.getValue().waiters) {
+        waiter.span.setTag("batch.size", batch.keys.size());
+        waiter.span.setTag("batch.wait.nanos", nowNanos - waiter.addedNanos);
+      }
+    }
+    BulkFuture<Map<String, Object>> future;
+    try {
+      future = bulkGet.asyncGetBulk(keys, transcoders.iterator());
+    } catch (RuntimeException e) {
+      OperationStatus status = new OperationStatus(false, String.valueOf(e.getMessage()),
+          StatusCode.ERR_CLIENT);
+      for (Key key : batch.keys.values()) {
+        key.complete(null, null, status);
+      }
+      return;
+    }
+    future.addListener(new BulkGetCompletionListener() {
+      @Override
+      public void onComplete(BulkGetFuture<?> completed) {
+        completed(batch, completed);
+      }
+    });
+  }
+
+  private static void completed(Batch batch, BulkGetFuture<?> future) {
+    Map<String, Future<?>> values = FutureOperations.values(future);
+    Map<String, Operation> operations = new HashMap<>();
+    Object ops = FutureOperations.operations(future);
+    if (ops instanceof Collection) {
+      for (Object op : (Collection<?>) ops) {
+        if (op instanceof KeyedOperation) {
+          for (String key : ((KeyedOperation) op).getKeys()) {
+            operations.put(key, (Operation) op);
+          }
+        }
+      }
+    }
+    for (Map.Entry<String, Key> entry : batch.keys.entrySet()) {
+      Operation operation = operations.get(entry.getKey());
+      Future<?> value = values == null ? null : values.get(entry.getKey());
+      OperationStatus status;
+      if (operation != null && (operation.hasErrored() || operation.isCancelled()
+          || operation.isTimedOut())) {
+        status = future.getStatus();
+      } else {
+        status = value == null ? NOT_FOUND : FOUND;
+      }
+      entry.getValue().complete(operation, value, status);
+    }
+  }
+
+  private final class Timeout implements Runnable {
+
+    private final Stripe stripe;
+    private final Batch batch;
+
+    private Timeout(Stripe stripe, Batch batch) {
+      this.stripe = stripe;
+      this.batch = batch;
+    }
+
+    @Override
+    public void run() {
+      synchronized (stripe) {
+        if (stripe.batch != batch) {
+          return;
+        }
+        stripe.batch = null;
+      }
+      send(batch);
+    }
+  }
+
+  /**
+   * Pending batch of the gets of one node, guarded by the stripe's lock
+   */
+  private static final class Stripe {
+
+    private Batch batch;
+  }
+
+  private static final class Batch {
+
+    private final Map<String, Key> keys = new LinkedHashMap<>();
+    private ScheduledFuture<?> timeout;
+
+    /**
+     * A bulk get reads each key once, with one transcoder
+     */
+    private boolean conflicts(String key, Transcoder<?> transcoder) {
+      Key existing = keys.get(key);
+      return existing != null && existing.transcoder != transcoder;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void add(String key, Transcoder<?> transcoder, Waiter waiter) {
+      Key existing = keys.get(key);
+      if (existing == null) {
+        existing = new Key((Transcoder<Object>) transcoder);
+        keys.put(key, existing);
+      }
+      existing.waiters.add(waiter);
+    }
+  }
+
+  private static final class Key {
+
+    private final Transcoder<Object> transcoder;
+    private final List<Waiter> waiters = new ArrayList<>(1);
+
+    private Key(Transcoder<Object> transcoder) {
+      this.transcoder = transcoder;
+    }
+
+    /**
+     * @return the transcoder reading the key for all its waiters
+     */
+    @SuppressWarnings("unchecked")
+    private Transcoder<Object> reader() {
+      List<TracingTranscoder<?>> tracing = new ArrayList<>(1);
+      for (Waiter waiter : waiters) {
+        if (waiter.transcoder instanceof TracingTranscoder) {
+          tracing.add((TracingTranscoder<?>) waiter.transcoder);
+        }
+      }
+      if (tracing.isEmpty()) {
+        return transcoder;
+      }
+      if (tracing.size() == 1) {
+        return (Transcoder<Object>) tracing.get(0);
+      }
+      return new SharedTranscoder(transcoder, tracing);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void complete(Operation operation, Future<?> value, OperationStatus status) {
+      for (Waiter waiter : waiters) {
+        ((BatchedGetFuture) waiter.future).complete(operation, value, status);
+      }
+    }
+  }
+
+  private static final class Waiter {
+
+    private final BatchedGetFuture<?> future;
+    private final Transcoder<?> transcoder;
+    private final Span span;
+    private final long addedNanos = System.nanoTime();
+
+    private Waiter(BatchedGetFuture<?> future, Transcoder<?> transcoder, Span span) {
+      this.future = future;
+      this.transcoder = transcoder;
+      this.span = span;
+    }
+  }
+
+  /**
+   * Decodes the value of a key read for several traced gets once and reports it to each of their
+   * operations
+   */
+  private static final class SharedTranscoder implements Transcoder<Object> {
+
+    private final Transcoder<Object> transcoder;
+    private final List<TracingTranscoder<?>> tracing;
+
+    private SharedTranscoder(Transcoder<Object> transcoder, List<TracingTranscoder<?>> tracing) {
+      this.transcoder = transcoder;
+      this.tracing = tracing;
+    }
+
+    @Override
+    public boolean asyncDecode(CachedData data) {
+      for (TracingTranscoder<?> waiter : tracing) {
+        waiter.received(data);
+      }
+      return transcoder.asyncDecode(data);
+    }
+
+    @Override
+    public CachedData encode(Object object) {
+      return transcoder.encode(object);
+    }
+
+    @Override
+    public Object decode(CachedData data) {
+      long startNanos = System.nanoTime();
+      Object decoded = transcoder.decode(data);
+      long nanos = System.nanoTime() - startNanos;
+      for (TracingTranscoder<?> waiter : tracing) {
+        waiter.decoded(data, nanos);
+      }
+      return decoded;
+    }
+
+    @Override
+    public int getMaxSize() {
+      return transcoder.getMaxSize();
+    }
+  }
+}
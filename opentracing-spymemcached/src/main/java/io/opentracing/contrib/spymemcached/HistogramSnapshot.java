@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+/**
+ * Point in time view of a histogram of recorded values, such as the payload sizes in bytes of an
+ * operation.
+ */
+public class HistogramSnapshot {
+
+  private final long[] counts;
+  private final long count;
+
+  HistogramSnapshot(long[] counts) {
+    this.counts = counts;
+    long count = 0;
+    for (long bucket : counts) {
+      count += bucket;
+    }
+    this.count = count;
+  }
+
+  /**
+   * @return number of recorded values
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * @param percentile percentile in range [0, 100]
+   * @return the value at or below which the given percentage of the recorded values lies
+   */
+  public long getValueAtPercentile(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return LatencyHistogram.highestValueAt(i);
+      }
+    }
+    return getMax();
+  }
+
+  public long getMedian() {
+    return getValueAtPercentile(50);
+  }
+
+  public long get99thPercentile() {
+    return getValueAtPercentile(99);
+  }
+
+  public long get999thPercentile() {
+    return getValueAtPercentile(99.9);
+  }
+
+  public long getMax() {
+    for (int i = counts.length - 1; i >= 0; i--) {
+      if (counts[i] > 0) {
+        return LatencyHistogram.highestValueAt(i);
+      }
+    }
+    return 0;
+  }
+}
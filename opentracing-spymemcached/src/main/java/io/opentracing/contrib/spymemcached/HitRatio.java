@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+/**
+ * Number of keys looked up by all calls of one operation and how many of them were found.
+ */
+public class HitRatio {
+
+  private final long lookups;
+  private final long hits;
+
+  HitRatio(long lookups, long hits) {
+    this.lookups = lookups;
+    this.hits = hits;
+  }
+
+  /**
+   * @return keys requested by completed operations, one per key of a bulk get
+   */
+  public long getLookups() {
+    return lookups;
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  public long getMisses() {
+    return lookups - hits;
+  }
+
+  /**
+   * @return hits divided by lookups, <code>0</code> without lookups
+   */
+  public double getRatio() {
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+
+  @Override
+  public String toString() {
+    return "{lookups=" + lookups + ", hits=" + hits + "}";
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+/**
+ * Estimated access frequency of a key, as reported by the hot key tracker.
+ */
+public class HotKey {
+
+  private final String key;
+  private final long count;
+  private final long error;
+  private final double rate;
+
+  HotKey(String key, long count, long error, double rate) {
+    this.key = key;
+    this.count = count;
+    this.error = error;
+    this.rate = rate;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * @return estimated number of accesses in the tracking window, never lower than the real count
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * @return maximum overestimation of {@link #getCount()}
+   */
+  public long getError() {
+    return error;
+  }
+
+  /**
+   * @return estimated accesses per second
+   */
+  public double getRate() {
+    return rate;
+  }
+
+  @Override
+  public String toString() {
+    return key + "=" + count;
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Bounded-memory top-K tracker based on the Space-Saving algorithm. Keys are spread over
+ * independently locked stripes by hash, so a key is always counted by the same stripe and
+ * concurrent updates of different keys rarely contend. Counts are kept per time window; readers
+ * see the last completed window, or the current one until a window has completed.
+ */
+class HotKeyTracker {
+
+  private static final int STRIPES = 16;
+
+  private final int stripeCapacity;
+  private final long windowNanos;
+  private final AtomicReference<Window> current;
+  private volatile Window completed;
+
+  HotKeyTracker(int capacity, long windowNanos) {
+    this.stripeCapacity = Math.max(1, (capacity + STRIPES - 1) / STRIPES);
+    this.windowNanos = windowNanos;
+    this.current = new AtomicReference<>(new Window(System.nanoTime()));
+  }
+
+  void record(String key) {
+    if (key == null) {
+      return;
+    }
+    window(System.nanoTime()).record(key);
+  }
+
+  void record(Iterable<String> keys) {
+    Window window = window(System.nanoTime());
+    for (String key : keys) {
+      if (key != null) {
+        window.record(key);
+      }
+    }
+  }
+
+  /**
+   * @return up to <code>limit</code> keys, hottest first
+   */
+  List<HotKey> top(int limit) {
+    long now = System.nanoTime();
+    Window window = completed;
+    long elapsed;
+    if (window == null || now - window.startNanos > 2 * windowNanos) {
+      window = window(now);
+      elapsed = now - window.startNanos;
+    } else {
+      elapsed = windowNanos;
+    }
+    double seconds = Math.max(elapsed, 1) / (double) TimeUnit.SECONDS.toNanos(1);
+
+    List<Counter> counters = new ArrayList<>();
+    for (Stripe stripe : window.stripes) {
+      stripe.copyTo(counters);
+    }
+    Collections.sort(counters, new Comparator<Counter>() {
+      @Override
+      public int compare(Counter first, Counter second) {
+        return Long.compare(second.count, first.count);
+      }
+    });
+    List<HotKey> hotKeys = new ArrayList<>(Math.min(limit, counters.size()));
+    for (Counter counter : counters.subList(0, Math.min(limit, counters.size()))) {
+      hotKeys.add(new HotKey(counter.key, counter.count, counter.error, counter.count / seconds));
+    }
+    return hotKeys;
+  }
+
+  private Window window(long now) {
+    Window window = current.get();
+    while (now - window.startNanos > windowNanos) {
+      Window next = new Window(now);
+      if (current.compareAndSet(window, next)) {
+        completed = window;
+        return next;
+      }
+      window = current.get();
+    }
+    return window;
+  }
+
+  private class Window {
+
+    private final long startNanos;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    Window(long startNanos) {
+      this.startNanos = startNanos;
+      for (int i = 0; i < STRIPES; i++) {
+        stripes[i] = new Stripe(stripeCapacity);
+      }
+    }
+
+    void record(String key) {
+      int hash = key.hashCode();
+      stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)].record(key);
+    }
+  }
+
+  private static class Counter {
+
+    private String key;
+    private long count;
+    private long error;
+    private int heapIndex;
+
+    Counter(String key, long count, long error) {
+      this.key = key;
+      this.count = count;
+      this.error = error;
+    }
+  }
+
+  /**
+   * Space-Saving summary: a map from key to counter plus a min-heap of the counters, so the
+   * least frequent key can be replaced in O(log k).
+   */
+  private static class Stripe {
+
+    private final Map<String, Counter> counters;
+    private final Counter[] heap;
+    private int size;
+
+    Stripe(int capacity) {
+      this.counters = new HashMap<>(capacity * 2);
+      this.heap = new Counter[capacity];
+    }
+
+    synchronized void record(String key) {
+      Counter counter = counters.get(key);
+      if (counter != null) {
+        counter.count++;
+        siftDown(counter.heapIndex);
+      } else if (size < heap.length) {
+        counter = new Counter(key, 1, 0);
+        counters.put(key, counter);
+        counter.heapIndex = size;
+        heap[size++] = counter;
+        siftUp(counter.heapIndex);
+      } else {
+        counter = heap[0];
+        counters.remove(counter.key);
+        counter.key = key;
+        counter.error = counter.count;
+        counter.count++;
+        counters.put(key, counter);
+        siftDown(0);
+      }
+    }
+
+    synchronized void copyTo(List<Counter> target) {
+      for (int i = 0; i < size; i++) {
+        target.add(new Counter(heap[i].key, heap[i].count, heap[i].error));
+      }
+    }
+
+    private void siftUp(int index) {
+      Counter counter = heap[index];
+      while (index > 0) {
+        int parent = (index - 1) >>> 1;
+        if (heap[parent].count <= counter.count) {
+          break;
+        }
+        place(heap[parent], index);
+        index = parent;
+      }
+      place(counter, index);
+    }
+
+    private void siftDown(int index) {
+      Counter counter = heap[index];
+      int half = size >>> 1;
+      while (index < half) {
+        int child = 2 * index + 1;
+        int right = child + 1;
+        if (right < size && heap[right].count < heap[child].count) {
+          child = right;
+        }
+        if (counter.count <= heap[child].count) {
+          break;
+        }
+        place(heap[child], index);
+        index = child;
+      }
+      place(counter, index);
+    }
+
+    private void place(Counter counter, int index) {
+      heap[index] = counter;
+      counter.heapIndex = index;
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram with an HdrHistogram-like log-linear bucket layout: values are grouped by
+ * power of two and every power of two is split into {@value #SUB_BUCKET_COUNT} linear sub-buckets,
+ * which bounds the relative error to about 3%.
+ */
+class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  /**
+   * Values above 2^40 (about 18 minutes in nanoseconds) are recorded as the maximum
+   */
+  private static final int MAX_VALUE_BITS = 40;
+  static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+  private static final int BUCKET_COUNT =
+      SUB_BUCKET_COUNT * (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1);
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+  void record(long value) {
+    counts.incrementAndGet(indexOf(value));
+  }
+
+  LatencySnapshot snapshot() {
+    return new LatencySnapshot(counts());
+  }
+
+  /**
+   * @return the snapshot of a histogram recording other values than latencies
+   */
+  HistogramSnapshot valueSnapshot() {
+    return new HistogramSnapshot(counts());
+  }
+
+  private long[] counts() {
+    long[] snapshot = new long[BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      snapshot[i] = counts.get(i);
+    }
+    return snapshot;
+  }
+
+  static int indexOf(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return value < 0 ? 0 : (int) value;
+    }
+    if (value > MAX_VALUE) {
+      value = MAX_VALUE;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return SUB_BUCKET_COUNT * (shift + 1) + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+  }
+
+  /**
+   * @return the highest value that falls into the bucket with the given index
+   */
+  static long highestValueAt(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = index / SUB_BUCKET_COUNT - 1;
+    long lowest = (long) (index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+}
@@ -0,0 +1,497 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import net.spy.memcached.MemcachedConnection;
+import net.spy.memcached.MemcachedNode;
+
+/**
+ * Latencies of all operations of a {@link TracingMemcachedClient}, recorded whether or not the
+ * operation was traced.
+ */
+public class MemcachedClientMetrics {
+
+  private static final int SLOW_OPERATION_KEY_LENGTH = 64;
+
+  private final ConcurrentMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+  private final ConcurrentMap<SocketAddress, LatencyHistogram> nodeLatencies =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<SocketAddress, AtomicLong> nodeErrors = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, LatencyHistogram[]> phaseLatencies =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, LatencyHistogram> payloadSizes =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, AtomicLong> lookups = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, AtomicLong> hits = new ConcurrentHashMap<>();
+  private final AtomicLong nearCacheLookups = new AtomicLong();
+  private final AtomicLong nearCacheHits = new AtomicLong();
+  private final AtomicLong negativeCacheHits = new AtomicLong();
+  private final ConcurrentMap<SocketAddress, NodeConnection> connections =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<SocketAddress, NodeStats> nodeStats = new ConcurrentHashMap<>();
+  private final SlowOperationRecorder slowOperations;
+  private final HotKeyTracker hotReadKeys;
+  private final HotKeyTracker hotWriteKeys;
+  private final CircuitBreaker circuitBreaker;
+
+  private final MemcachedConnection connection;
+  private final ExecutorService listenerExecutor;
+  private final SpanFinisher spanFinisher;
+  private final LatencyHistogram listenerTime = new LatencyHistogram();
+  private final NodeQueues.Cache nodeQueues = new NodeQueues.Cache();
+  private final ConcurrentMap<MemcachedNode, QueueDepth> sampledQueueDepths =
+      new ConcurrentHashMap<>();
+
+  MemcachedClientMetrics(TracingConfiguration configuration, MemcachedConnection connection,
+      ExecutorService listenerExecutor, SpanFinisher spanFinisher) {
+    this.connection = connection;
+    this.listenerExecutor = listenerExecutor;
+    this.spanFinisher = spanFinisher;
+    if (configuration.getHotKeyCapacity() > 0) {
+      hotReadKeys = new HotKeyTracker(configuration.getHotKeyCapacity(),
+          configuration.getHotKeyWindowNanos());
+      hotWriteKeys = new HotKeyTracker(configuration.getHotKeyCapacity(),
+          configuration.getHotKeyWindowNanos());
+    } else {
+      hotReadKeys = null;
+      hotWriteKeys = null;
+    }
+    circuitBreaker = CircuitBreaker.create(configuration);
+    if (configuration.getSlowOperationCapacity() > 0) {
+      slowOperations = new SlowOperationRecorder(configuration.getSlowOperationCapacity(),
+          configuration.getSlowOperationThresholdNanos());
+    } else {
+      slowOperations = null;
+    }
+  }
+
+  /**
+   * @return names of the operations with recorded latencies
+   */
+  public Set<String> getOperationNames() {
+    return Collections.unmodifiableSet(latencies.keySet());
+  }
+
+  /**
+   * @return latencies of the operation or <code>null</code> if none were recorded
+   */
+  public LatencySnapshot getLatency(String operationName) {
+    LatencyHistogram histogram = latencies.get(operationName);
+    return histogram == null ? null : histogram.snapshot();
+  }
+
+  public Map<String, LatencySnapshot> getLatencies() {
+    Map<String, LatencySnapshot> snapshots = new HashMap<>();
+    for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+      snapshots.put(entry.getKey(), entry.getValue().snapshot());
+    }
+    return snapshots;
+  }
+
+  /**
+   * @return durations of the phase of the operation or <code>null</code> if none were recorded.
+   * Phases are known for operations completed through a spymemcached future, which includes the
+   * synchronous operations built on the asynchronous ones.
+   */
+  public LatencySnapshot getPhaseLatency(String operationName, OperationPhase phase) {
+    LatencyHistogram[] histograms = phaseLatencies.get(operationName);
+    return histograms == null ? null : histograms[phase.ordinal()].snapshot();
+  }
+
+  /**
+   * @return keys looked up and found by the get operation, or <code>null</code> if it did not
+   * complete yet. Failed operations are not counted.
+   */
+  public HitRatio getHitRatio(String operationName) {
+    AtomicLong lookupCount = lookups.get(operationName);
+    if (lookupCount == null) {
+      return null;
+    }
+    // hits are read before and recorded after lookups, so that they never exceed lookups
+    long hitCount = counter(hits, operationName).get();
+    return new HitRatio(lookupCount.get(), hitCount);
+  }
+
+  /**
+   * @return keys looked up and found in the near cache by gets and bulk gets
+   */
+  public HitRatio getNearCacheHitRatio() {
+    long hitCount = nearCacheHits.get();
+    return new HitRatio(nearCacheLookups.get(), hitCount);
+  }
+
+  /**
+   * @return keys that were not read from memcached because they were recently not found
+   */
+  public long getNegativeCacheHits() {
+    return negativeCacheHits.get();
+  }
+
+  public Map<String, HitRatio> getHitRatios() {
+    Map<String, HitRatio> ratios = new HashMap<>();
+    for (String operationName : lookups.keySet()) {
+      ratios.put(operationName, getHitRatio(operationName));
+    }
+    return ratios;
+  }
+
+  /**
+   * @return serialized sizes in bytes of the values stored or retrieved by the operation or
+   * <code>null</code> if none were recorded. Sizes are only recorded for traced operations with
+   * transcoder tracking enabled.
+   */
+  public HistogramSnapshot getPayloadSize(String operationName) {
+    LatencyHistogram histogram = payloadSizes.get(operationName);
+    return histogram == null ? null : histogram.valueSnapshot();
+  }
+
+  public Map<String, HistogramSnapshot> getPayloadSizes() {
+    Map<String, HistogramSnapshot> snapshots = new HashMap<>();
+    for (Map.Entry<String, LatencyHistogram> entry : payloadSizes.entrySet()) {
+      snapshots.put(entry.getKey(), entry.getValue().valueSnapshot());
+    }
+    return snapshots;
+  }
+
+  /**
+   * @return latencies of the keyed operations sent to the node or <code>null</code> if none were
+   * recorded
+   */
+  public LatencySnapshot getNodeLatency(SocketAddress node) {
+    LatencyHistogram histogram = nodeLatencies.get(node);
+    return histogram == null ? null : histogram.snapshot();
+  }
+
+  public Map<SocketAddress, LatencySnapshot> getNodeLatencies() {
+    Map<SocketAddress, LatencySnapshot> snapshots = new HashMap<>();
+    for (Map.Entry<SocketAddress, LatencyHistogram> entry : nodeLatencies.entrySet()) {
+      snapshots.put(entry.getKey(), entry.getValue().snapshot());
+    }
+    return snapshots;
+  }
+
+  /**
+   * @return number of keyed operations sent to the node that failed with an exception, timed out
+   * or were rejected by the server
+   */
+  public long getNodeErrorCount(SocketAddress node) {
+    AtomicLong errors = nodeErrors.get(node);
+    return errors == null ? 0 : errors.get();
+  }
+
+  public Map<SocketAddress, Long> getNodeErrorCounts() {
+    Map<SocketAddress, Long> counts = new HashMap<>();
+    for (Map.Entry<SocketAddress, AtomicLong> entry : nodeErrors.entrySet()) {
+      counts.put(entry.getKey(), entry.getValue().get());
+    }
+    return counts;
+  }
+
+  /**
+   * Reads the current size of every node's operation queues. Queue depths are only available
+   * for spymemcached's TCP node implementations.
+   *
+   * @return queue depths by node address
+   */
+  public Map<SocketAddress, QueueDepth> getQueueDepths() {
+    Map<SocketAddress, QueueDepth> depths = new HashMap<>();
+    if (connection == null) {
+      return depths;
+    }
+    for (MemcachedNode node : connection.getLocator().getAll()) {
+      QueueDepth depth = getQueueDepth(node);
+      if (depth != null) {
+        depths.put(node.getSocketAddress(), depth);
+      }
+    }
+    return depths;
+  }
+
+  /**
+   * Reads the queue depths of every node for {@link #getSampledQueueDepth}
+   */
+  void sampleQueueDepths() {
+    if (connection == null) {
+      return;
+    }
+    for (MemcachedNode node : connection.getLocator().getAll()) {
+      QueueDepth depth = getQueueDepth(node);
+      if (depth != null) {
+        sampledQueueDepths.put(node, depth);
+      }
+    }
+  }
+
+  /**
+   * @return the last sampled queue depths of the node, <code>null</code> if they are not sampled
+   */
+  QueueDepth getSampledQueueDepth(MemcachedNode node) {
+    return sampledQueueDepths.get(node);
+  }
+
+  QueueDepth getQueueDepth(MemcachedNode node) {
+    NodeQueues queues = nodeQueues.get(node);
+    if (!queues.isAvailable()) {
+      return null;
+    }
+    return new QueueDepth(node.getSocketAddress(), queues.getInputSize(), queues.getWriteSize(),
+        queues.getReadSize());
+  }
+
+  /**
+   * @return reconnects and unavailable time of the node or <code>null</code> if no connection
+   * event was seen for it
+   */
+  public ConnectionStats getConnectionStats(SocketAddress node) {
+    NodeConnection connection = connections.get(node);
+    return connection == null ? null : connection.snapshot(node);
+  }
+
+  public Map<SocketAddress, ConnectionStats> getConnectionStats() {
+    Map<SocketAddress, ConnectionStats> stats = new HashMap<>();
+    for (Map.Entry<SocketAddress, NodeConnection> entry : connections.entrySet()) {
+      stats.put(entry.getKey(), entry.getValue().snapshot(entry.getKey()));
+    }
+    return stats;
+  }
+
+  /**
+   * @return state of the circuit of every node that completed an operation, empty if the circuit
+   * breaker is disabled
+   */
+  public Map<SocketAddress, CircuitState> getCircuitStates() {
+    if (circuitBreaker == null) {
+      return Collections.emptyMap();
+    }
+    return circuitBreaker.states();
+  }
+
+  /**
+   * @return current load of spymemcached's listener executor and of the span finishing queue
+   */
+  public CompletionStats getCompletionStats() {
+    int queueDepth = -1;
+    int activeThreads = -1;
+    int poolSize = -1;
+    if (listenerExecutor instanceof ThreadPoolExecutor) {
+      ThreadPoolExecutor executor = (ThreadPoolExecutor) listenerExecutor;
+      queueDepth = executor.getQueue().size();
+      activeThreads = executor.getActiveCount();
+      poolSize = executor.getPoolSize();
+    }
+    return new CompletionStats(queueDepth, activeThreads, poolSize, listenerTime.snapshot(),
+        spanFinisher == null ? 0 : spanFinisher.getPending(),
+        spanFinisher == null ? 0 : spanFinisher.getDropped());
+  }
+
+  /**
+   * @return server stats of every node as of the last background collection, empty if stats
+   * polling is not enabled
+   */
+  public Map<SocketAddress, NodeStats> getNodeStats() {
+    return new HashMap<>(nodeStats);
+  }
+
+  /**
+   * @return the last operations slower than the configured threshold, newest first, or an empty
+   * list if the slow operation recorder is not enabled
+   */
+  public List<SlowOperation> getSlowOperations() {
+    return slowOperations == null ? Collections.<SlowOperation>emptyList()
+        : slowOperations.operations();
+  }
+
+  /**
+   * @return {@link #getSlowOperations()} with one operation per line
+   */
+  public String dumpSlowOperations() {
+    StringBuilder builder = new StringBuilder();
+    for (SlowOperation operation : getSlowOperations()) {
+      builder.append(operation).append('\n');
+    }
+    return builder.toString();
+  }
+
+  /**
+   * @return up to <code>limit</code> most read keys, hottest first, or an empty list if hot key
+   * tracking is not enabled
+   */
+  public List<HotKey> getHotReadKeys(int limit) {
+    return hotReadKeys == null ? Collections.<HotKey>emptyList() : hotReadKeys.top(limit);
+  }
+
+  /**
+   * @return up to <code>limit</code> most written keys, hottest first, or an empty list if hot
+   * key tracking is not enabled
+   */
+  public List<HotKey> getHotWriteKeys(int limit) {
+    return hotWriteKeys == null ? Collections.<HotKey>emptyList() : hotWriteKeys.top(limit);
+  }
+
+  void recordRead(String key) {
+    if (hotReadKeys != null) {
+      hotReadKeys.record(key);
+    }
+  }
+
+  void recordReads(Iterable<String> keys) {
+    if (hotReadKeys != null) {
+      hotReadKeys.record(keys);
+    }
+  }
+
+  void recordWrite(String key) {
+    if (hotWriteKeys != null) {
+      hotWriteKeys.record(key);
+    }
+  }
+
+  void recordWrites(Iterable<String> keys) {
+    if (hotWriteKeys != null) {
+      hotWriteKeys.record(keys);
+    }
+  }
+
+  void connectionLost(SocketAddress node) {
+    connection(node).lost(System.nanoTime());
+  }
+
+  /**
+   * @return nanoseconds the node was disconnected or <code>-1</code> for its first connection
+   */
+  long connectionEstablished(SocketAddress node) {
+    return connection(node).established(System.nanoTime());
+  }
+
+  private NodeConnection connection(SocketAddress node) {
+    NodeConnection connection = connections.get(node);
+    if (connection == null) {
+      NodeConnection created = new NodeConnection();
+      connection = connections.putIfAbsent(node, created);
+      if (connection == null) {
+        connection = created;
+      }
+    }
+    return connection;
+  }
+
+  void recordNodeStats(NodeStats stats) {
+    nodeStats.put(stats.getNode(), stats);
+  }
+
+  /**
+   * @return the circuit breaker or <code>null</code> if it is disabled
+   */
+  CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  boolean isRecordingSlowOperations() {
+    return slowOperations != null;
+  }
+
+  boolean isSlow(long nanos) {
+    return slowOperations != null && slowOperations.isSlow(nanos);
+  }
+
+  void recordSlowOperation(String operationName, String key, SocketAddress node,
+      long startMillis, long nanos, long[] phaseNanos, String status, String traceId) {
+    slowOperations.record(new SlowOperation(slowOperations.nextSequence(), operationName,
+        key == null ? null : TracingHelper.truncate(key, SLOW_OPERATION_KEY_LENGTH), node,
+        startMillis, nanos, phaseNanos, status, traceId));
+  }
+
+  void recordListenerTime(long nanos) {
+    listenerTime.record(nanos);
+  }
+
+  void recordLatency(String operationName, long nanos) {
+    histogram(latencies, operationName).record(nanos);
+  }
+
+  void recordLookups(String operationName, int requested, int found) {
+    counter(lookups, operationName).addAndGet(requested);
+    counter(hits, operationName).addAndGet(found);
+  }
+
+  void recordNearCacheLookups(int requested, int found) {
+    nearCacheLookups.addAndGet(requested);
+    nearCacheHits.addAndGet(found);
+  }
+
+  void recordNegativeCacheHits(int hits) {
+    negativeCacheHits.addAndGet(hits);
+  }
+
+  void recordPayloadSize(String operationName, long bytes) {
+    histogram(payloadSizes, operationName).record(bytes);
+  }
+
+  void recordPhase(String operationName, OperationPhase phase, long nanos) {
+    LatencyHistogram[] histograms = phaseLatencies.get(operationName);
+    if (histograms == null) {
+      LatencyHistogram[] created = new LatencyHistogram[OperationPhase.values().length];
+      for (int i = 0; i < created.length; i++) {
+        created[i] = new LatencyHistogram();
+      }
+      histograms = phaseLatencies.putIfAbsent(operationName, created);
+      if (histograms == null) {
+        histograms = created;
+      }
+    }
+    histograms[phase.ordinal()].record(nanos);
+  }
+
+  void recordNodeLatency(SocketAddress node, long nanos, boolean failed) {
+    histogram(nodeLatencies, node).record(nanos);
+    if (failed) {
+      counter(nodeErrors, node).incrementAndGet();
+    }
+  }
+
+  static <K> AtomicLong counter(ConcurrentMap<K, AtomicLong> counters, K key) {
+    AtomicLong counter = counters.get(key);
+    if (counter == null) {
+      AtomicLong created = new AtomicLong();
+      counter = counters.putIfAbsent(key, created);
+      if (counter == null) {
+        counter = created;
+      }
+    }
+    return counter;
+  }
+
+  static <K> LatencyHistogram histogram(ConcurrentMap<K, LatencyHistogram> histograms, K key) {
+    LatencyHistogram histogram = histograms.get(key);
+    if (histogram == null) {
+      LatencyHistogram created = new LatencyHistogram();
+      histogram = histograms.putIfAbsent(key, created);
+      if (histogram == null) {
+        histogram = created;
+      }
+    }
+    return histogram;
+  }
+}
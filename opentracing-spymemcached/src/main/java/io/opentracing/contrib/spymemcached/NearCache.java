@@ -0,0 +1,267 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Bounded in-process cache of values read and written through the client. Keys are spread over
+ * segments, each a segmented LRU: new entries enter a probation area and are promoted to a
+ * protected area when read again, so that a scan of keys read once cannot evict the frequently read
+ * ones. Entries expire after the configured time to live or earlier if they were stored with a
+ * shorter memcached expiration. The negative cache is another instance keeping a marker for keys
+ * that were not found, stored without transcoder.
+ *
+ * <p>Every invalidation advances the version of the key's segment and records it for the key.
+ * Reads capture the segment's version with {@link #stamp(String)} before asking memcached, and
+ * their result is not stored if a local write invalidated the key in the meantime. Each segment
+ * remembers the latest invalidations up to twice its capacity: reads that started before the oldest
+ * forgotten one are not stored either.
+ */
+class NearCache {
+
+  private static final int MAX_SEGMENTS = 16;
+  private static final int MIN_SEGMENT_SIZE = 8;
+  /**
+   * Memcached reads expirations above 30 days as absolute unix times
+   */
+  private static final int RELATIVE_EXPIRATION_LIMIT = 60 * 60 * 24 * 30;
+
+  private final Segment[] segments;
+  private final long ttlNanos;
+
+  NearCache(int maximumSize, long ttlNanos) {
+    int count = 1;
+    while (count < MAX_SEGMENTS && count * 2 * MIN_SEGMENT_SIZE <= maximumSize) {
+      count *= 2;
+    }
+    this.segments = new Segment[count];
+    for (int i = 0; i < count; i++) {
+      segments[i] = new Segment((maximumSize + count - 1) / count);
+    }
+    this.ttlNanos = ttlNanos;
+  }
+
+  /**
+   * @return the cache or <code>null</code> if the near cache is disabled
+   */
+  static NearCache create(TracingConfiguration configuration) {
+    if (configuration.getNearCacheMaximumSize() == 0) {
+      return null;
+    }
+    return new NearCache(configuration.getNearCacheMaximumSize(),
+        configuration.getNearCacheTtlNanos());
+  }
+
+  /**
+   * @return the cache of keys that were not found, or <code>null</code> if the negative cache is
+   * disabled
+   */
+  static NearCache createNegative(TracingConfiguration configuration) {
+    if (configuration.getNegativeCacheMaximumSize() == 0) {
+      return null;
+    }
+    return new NearCache(configuration.getNegativeCacheMaximumSize(),
+        configuration.getNegativeCacheTtlNanos());
+  }
+
+  /**
+   * @return the value stored for the key with the same transcoder, <code>null</code> if there is
+   * none or it expired
+   */
+  @SuppressWarnings("unchecked")
+  <T> T get(String key, Transcoder<T> transcoder) {
+    Entry entry = segment(key).get(key, System.nanoTime());
+    return entry == null || entry.transcoder != transcoder ? null : (T) entry.value;
+  }
+
+  /**
+   * @return the current version of the key's segment, to be passed to {@link #put}
+   */
+  long stamp(String key) {
+    return segment(key).version();
+  }
+
+  /**
+   * Stores a value read from memcached for the configured time to live
+   */
+  <T> void put(String key, T value, Transcoder<T> transcoder, long stamp) {
+    put(key, value, transcoder, stamp, ttlNanos);
+  }
+
+  /**
+   * Stores a value written to memcached with the given expiration, for at most the configured time
+   * to live
+   */
+  <T> void put(String key, T value, Transcoder<T> transcoder, long stamp, int expiration) {
+    put(key, value, transcoder, stamp, ttlNanos(expiration));
+  }
+
+  private void put(String key, Object value, Transcoder<?> transcoder, long stamp, long nanos) {
+    if (value != null && nanos > 0) {
+      segment(key).put(key, new Entry(value, transcoder, System.nanoTime() + nanos), stamp);
+    }
+  }
+
+  /**
+   * @return the version of the invalidation, with which the new value of the key may be stored
+   */
+  long invalidate(String key) {
+    return segment(key).invalidate(key);
+  }
+
+  void clear() {
+    for (Segment segment : segments) {
+      segment.clear();
+    }
+  }
+
+  int size() {
+    int size = 0;
+    for (Segment segment : segments) {
+      size += segment.size();
+    }
+    return size;
+  }
+
+  long ttlNanos(int expiration) {
+    if (expiration == 0) {
+      return ttlNanos;
+    }
+    long seconds = expiration > RELATIVE_EXPIRATION_LIMIT
+        ? expiration - TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis())
+        : expiration;
+    return Math.min(ttlNanos, TimeUnit.SECONDS.toNanos(seconds));
+  }
+
+  private Segment segment(String key) {
+    int hash = key.hashCode();
+    hash ^= hash >>> 16;
+    return segments[hash & (segments.length - 1)];
+  }
+
+  private static final class Entry {
+
+    private final Object value;
+    private final Transcoder<?> transcoder;
+    private final long expiresNanos;
+
+    private Entry(Object value, Transcoder<?> transcoder, long expiresNanos) {
+      this.value = value;
+      this.transcoder = transcoder;
+      this.expiresNanos = expiresNanos;
+    }
+
+    private boolean isExpired(long nowNanos) {
+      return nowNanos - expiresNanos >= 0;
+    }
+  }
+
+  private static final class Segment {
+
+    private final int capacity;
+    private final int protectedCapacity;
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Entry> protect = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * Version of the latest invalidation of each key, oldest first
+     */
+    private final LinkedHashMap<String, Long> invalidations = new LinkedHashMap<>();
+    private long version;
+    /**
+     * Version of the latest invalidation that is no longer remembered
+     */
+    private long forgotten;
+
+    private Segment(int capacity) {
+      this.capacity = capacity;
+      this.protectedCapacity = Math.max(1, capacity * 4 / 5);
+    }
+
+    private synchronized Entry get(String key, long nowNanos) {
+      Entry entry = protect.get(key);
+      if (entry != null) {
+        if (entry.isExpired(nowNanos)) {
+          protect.remove(key);
+          return null;
+        }
+        return entry;
+      }
+      entry = probation.remove(key);
+      if (entry == null || entry.isExpired(nowNanos)) {
+        return null;
+      }
+      protect.put(key, entry);
+      if (protect.size() > protectedCapacity) {
+        Map.Entry<String, Entry> demoted = removeEldest(protect);
+        probation.put(demoted.getKey(), demoted.getValue());
+      }
+      return entry;
+    }
+
+    private synchronized void put(String key, Entry entry, long stamp) {
+      Long invalidated = invalidations.get(key);
+      if (stamp < (invalidated == null ? forgotten : invalidated)) {
+        return;
+      }
+      if (protect.containsKey(key)) {
+        protect.put(key, entry);
+        return;
+      }
+      probation.put(key, entry);
+      if (probation.size() + protect.size() > capacity) {
+        removeEldest(probation.isEmpty() ? protect : probation);
+      }
+    }
+
+    private synchronized long version() {
+      return version;
+    }
+
+    private synchronized long invalidate(String key) {
+      probation.remove(key);
+      protect.remove(key);
+      invalidations.remove(key);
+      invalidations.put(key, ++version);
+      if (invalidations.size() > capacity * 2) {
+        Iterator<Long> oldest = invalidations.values().iterator();
+        forgotten = oldest.next();
+        oldest.remove();
+      }
+      return version;
+    }
+
+    private synchronized void clear() {
+      probation.clear();
+      protect.clear();
+      invalidations.clear();
+      forgotten = ++version;
+    }
+
+    private synchronized int size() {
+      return probation.size() + protect.size();
+    }
+
+    private static Map.Entry<String, Entry> removeEldest(LinkedHashMap<String, Entry> map) {
+      Iterator<Map.Entry<String, Entry>> iterator = map.entrySet().iterator();
+      Map.Entry<String, Entry> eldest = iterator.next();
+      iterator.remove();
+      return eldest;
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+
+/**
+ * Completed future of an asynchronous get served by the {@link NearCache}, or of a key known to be
+ * missing or not read because the circuit of its node is open. Listeners added to it are notified
+ * on the client's listener executor, like the ones of a completed memcached get.
+ */
+class NearCacheGetFuture<T> extends GetFuture<T> {
+
+  private static final OperationStatus STATUS =
+      new OperationStatus(true, "NEAR_CACHE_HIT", StatusCode.SUCCESS);
+  private static final OperationStatus NOT_FOUND =
+      new OperationStatus(false, "NOT_FOUND", StatusCode.ERR_NOT_FOUND);
+
+  private final T value;
+
+  NearCacheGetFuture(String key, T value, ExecutorService executorService) {
+    super(new CountDownLatch(0), 0, key, executorService);
+    this.value = value;
+  }
+
+  @Override
+  public T get() {
+    return value;
+  }
+
+  @Override
+  public T get(long duration, TimeUnit units) {
+    return value;
+  }
+
+  @Override
+  public OperationStatus getStatus() {
+    return value == null ? NOT_FOUND : STATUS;
+  }
+
+  @Override
+  public boolean cancel(boolean ign) {
+    return false;
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return false;
+  }
+
+  @Override
+  public boolean isDone() {
+    return true;
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import java.net.SocketAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection state of one node. Connection events come from spymemcached's IO thread only,
+ * readers may run on any thread.
+ */
+class NodeConnection {
+
+  private final AtomicLong reconnects = new AtomicLong();
+  private final AtomicLong unavailableNanos = new AtomicLong();
+  private final LatencyHistogram reconnectTime = new LatencyHistogram();
+  /**
+   * {@link System#nanoTime()} at which the connection was lost, <code>0</code> while connected
+   */
+  private volatile long lostNanos;
+
+  void lost(long nanos) {
+    if (lostNanos == 0) {
+      lostNanos = nanos == 0 ? 1 : nanos;
+    }
+  }
+
+  /**
+   * @return nanoseconds since the connection was lost or <code>-1</code> for the first connection
+   */
+  long established(long nanos) {
+    long lost = lostNanos;
+    if (lost == 0) {
+      return -1;
+    }
+    long downNanos = nanos - lost;
+    reconnects.incrementAndGet();
+    reconnectTime.record(downNanos);
+    unavailableNanos.addAndGet(downNanos);
+    lostNanos = 0;
+    return downNanos;
+  }
+
+  ConnectionStats snapshot(SocketAddress node) {
+    long lost = lostNanos;
+    long unavailable = unavailableNanos.get();
+    if (lost != 0) {
+      unavailable += System.nanoTime() - lost;
+    }
+    return new ConnectionStats(node, lost == 0, reconnects.get(), unavailable,
+        reconnectTime.snapshot());
+  }
+}
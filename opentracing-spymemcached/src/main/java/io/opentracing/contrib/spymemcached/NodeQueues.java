@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import java.lang.reflect.Field;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.protocol.TCPMemcachedNodeImpl;
+
+/**
+ * Access to the input, write and read operation queues of spymemcached's TCP nodes. MemcachedNode
+ * does not expose its queues, so they are looked up once per node by reflection; nodes of other
+ * implementations report no queues.
+ */
+class NodeQueues {
+
+  private static final Field INPUT_QUEUE = field("inputQueue");
+  private static final Field WRITE_QUEUE = field("writeQ");
+  private static final Field READ_QUEUE = field("readQ");
+  private static final NodeQueues UNAVAILABLE = new NodeQueues(null, null, null);
+
+  private final Queue<?> input;
+  private final Queue<?> write;
+  private final Queue<?> read;
+
+  private NodeQueues(Queue<?> input, Queue<?> write, Queue<?> read) {
+    this.input = input;
+    this.write = write;
+    this.read = read;
+  }
+
+  boolean isAvailable() {
+    return input != null;
+  }
+
+  int getInputSize() {
+    return input == null ? -1 : input.size();
+  }
+
+  int getWriteSize() {
+    return write == null ? -1 : write.size();
+  }
+
+  int getReadSize() {
+    return read == null ? -1 : read.size();
+  }
+
+  static class Cache {
+
+    private final ConcurrentMap<MemcachedNode, NodeQueues> queues = new ConcurrentHashMap<>();
+
+    NodeQueues get(MemcachedNode node) {
+      NodeQueues nodeQueues = queues.get(node);
+      if (nodeQueues == null) {
+        nodeQueues = of(node);
+        queues.putIfAbsent(node, nodeQueues);
+      }
+      return nodeQueues;
+    }
+  }
+
+  static NodeQueues of(MemcachedNode node) {
+    if (!(node instanceof TCPMemcachedNodeImpl) || INPUT_QUEUE == null || WRITE_QUEUE == null
+        || READ_QUEUE == null) {
+      return UNAVAILABLE;
+    }
+    try {
+      return new NodeQueues((Queue<?>) INPUT_QUEUE.get(node), (Queue<?>) WRITE_QUEUE.get(node),
+          (Queue<?>) READ_QUEUE.get(node));
+    } catch (IllegalAccessException | RuntimeException e) {
+      return UNAVAILABLE;
+    }
+  }
+
+  private static Field field(String name) {
+    try {
+      Field field = TCPMemcachedNodeImpl.class.getDeclaredField(name);
+      field.setAccessible(true);
+      return field;
+    } catch (NoSuchFieldException | RuntimeException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Server stats of one node as of the last background collection. Counters the server did not
+ * report are <code>-1</code>.
+ */
+public class NodeStats {
+
+  private final SocketAddress node;
+  private final long timestampMillis;
+  private final Map<String, String> stats;
+  private final long evictions;
+  private final long currentItems;
+  private final long bytes;
+  private final long getHits;
+  private final long threads;
+  private final long connectionYields;
+
+  NodeStats(SocketAddress node, long timestampMillis, Map<String, String> stats) {
+    this.node = node;
+    this.timestampMillis = timestampMillis;
+    this.stats = Collections.unmodifiableMap(stats);
+    this.evictions = parse(stats, "evictions");
+    this.currentItems = parse(stats, "curr_items");
+    this.bytes = parse(stats, "bytes");
+    this.getHits = parse(stats, "get_hits");
+    this.threads = parse(stats, "threads");
+    this.connectionYields = parse(stats, "conn_yields");
+  }
+
+  private static long parse(Map<String, String> stats, String name) {
+    String value = stats.get(name);
+    if (value == null) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  public SocketAddress getNode() {
+    return node;
+  }
+
+  /**
+   * @return {@link System#currentTimeMillis()} at which the stats were received
+   */
+  public long getTimestampMillis() {
+    return timestampMillis;
+  }
+
+  /**
+   * @return all stats reported by the server
+   */
+  public Map<String, String> getStats() {
+    return stats;
+  }
+
+  public long getEvictions() {
+    return evictions;
+  }
+
+  public long getCurrentItems() {
+    return currentItems;
+  }
+
+  public long getBytes() {
+    return bytes;
+  }
+
+  public long getGetHits() {
+    return getHits;
+  }
+
+  public long getThreads() {
+    return threads;
+  }
+
+  /**
+   * @return number of times connections yielded to others after reaching the server's request
+   * limit per event
+   */
+  public long getConnectionYields() {
+    return connectionYields;
+  }
+
+  @Override
+  public String toString() {
+    return node + stats.toString();
+  }
+}
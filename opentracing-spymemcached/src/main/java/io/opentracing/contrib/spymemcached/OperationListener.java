@@ -0,0 +1,34 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import java.net.SocketAddress;
+
+/**
+ * Receives every completed operation, whether or not it was traced, e.g. to report it to another
+ * monitoring system. Called on the thread that completed the operation, so implementations must
+ * be fast and must not block.
+ */
+public interface OperationListener {
+
+  /**
+   * @param key key of the operation or <code>null</code> for operations without key
+   * @param node primary node of the key or <code>null</code> for operations without key
+   * @param payloadBytes serialized size of the values, <code>-1</code> if not recorded
+   * @param status status code of the operation, <code>ERROR</code> if it threw, or
+   * <code>null</code> if not known
+   */
+  void onOperation(String operationName, String key, SocketAddress node, long durationNanos,
+      long payloadBytes, String status);
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+/**
+ * Phases of an operation. {@link #ENQUEUE}, {@link #WRITE} and {@link #RESPONSE} are consecutive,
+ * from the client call until its completion; {@link #ENCODE} and {@link #DECODE} are the time
+ * spent in the transcoder, which is only measured with transcoder tracking enabled.
+ */
+public enum OperationPhase {
+  /**
+   * From the client call until the operation is queued for its node. Includes key validation,
+   * encoding of stored values and node lookup.
+   */
+  ENQUEUE,
+  /**
+   * From queueing until the IO thread has written the operation to the socket, i.e. time spent
+   * waiting behind other operations plus the write itself
+   */
+  WRITE,
+  /**
+   * From the write until the response is read and the operation completes
+   */
+  RESPONSE,
+  /**
+   * Serialization of stored values, part of {@link #ENQUEUE}
+   */
+  ENCODE,
+  /**
+   * Deserialization of retrieved values, on spymemcached's IO or transcoder threads or on the
+   * thread that gets the result from the future
+   */
+  DECODE
+}
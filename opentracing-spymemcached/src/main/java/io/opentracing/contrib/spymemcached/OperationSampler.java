@@ -0,0 +1,27 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+/**
+ * Decides whether an operation is traced. It is consulted before any span builder is created, so
+ * rejected operations cost no span allocation.
+ */
+public interface OperationSampler {
+
+  /**
+   * @param operationName name of the operation, e.g. <code>get</code> or <code>cas</code>
+   * @return <code>true</code> if a span should be created for the operation
+   */
+  boolean sample(String operationName);
+}
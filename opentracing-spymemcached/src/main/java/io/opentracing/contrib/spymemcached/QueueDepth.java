@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import java.net.SocketAddress;
+
+/**
+ * Number of operations waiting in the queues of one node at the time of the query.
+ */
+public class QueueDepth {
+
+  private final SocketAddress node;
+  private final int input;
+  private final int write;
+  private final int read;
+
+  QueueDepth(SocketAddress node, int input, int write, int read) {
+    this.node = node;
+    this.input = input;
+    this.write = write;
+    this.read = read;
+  }
+
+  public SocketAddress getNode() {
+    return node;
+  }
+
+  /**
+   * @return operations submitted but not yet picked up by the IO thread
+   */
+  public int getInput() {
+    return input;
+  }
+
+  /**
+   * @return operations being written or waiting to be written to the socket
+   */
+  public int getWrite() {
+    return write;
+  }
+
+  /**
+   * @return operations written and waiting for their response
+   */
+  public int getRead() {
+    return read;
+  }
+
+  public int getTotal() {
+    return input + write + read;
+  }
+
+  @Override
+  public String toString() {
+    return node + "{input=" + input + ", write=" + write + ", read=" + read + "}";
+  }
+}
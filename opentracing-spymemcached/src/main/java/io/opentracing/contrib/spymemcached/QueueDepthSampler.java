@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the queue depths of every node on a background thread for the span tags. Reading the
+ * size of a node's queues takes the locks the IO thread uses, so it is done once per interval
+ * rather than for every traced operation.
+ */
+class QueueDepthSampler implements Runnable {
+
+  private final MemcachedClientMetrics metrics;
+  private final ScheduledExecutorService executor = Executors
+      .newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "memcached-queue-depth-sampler");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  private QueueDepthSampler(MemcachedClientMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Takes a first sample before returning, so that the first operations are tagged too.
+   *
+   * @return the sampler or <code>null</code> if queue depth sampling is disabled
+   */
+  static QueueDepthSampler start(MemcachedClientMetrics metrics,
+      TracingConfiguration configuration) {
+    if (configuration.getQueueDepthSamplingIntervalNanos() == 0) {
+      return null;
+    }
+    long interval = configuration.getQueueDepthSamplingIntervalNanos();
+    QueueDepthSampler sampler = new QueueDepthSampler(metrics);
+    sampler.run();
+    sampler.executor.scheduleWithFixedDelay(sampler, interval, interval, TimeUnit.NANOSECONDS);
+    return sampler;
+  }
+
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @Override
+  public void run() {
+    try {
+      metrics.sampleQueueDepths();
+    } catch (RuntimeException e) {
+      // the client is shutting down; keep sampling on schedule until it is stopped
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Samples operations with a probability per operation name and caps the total number of sampled
+ * operations per second with a lock-free token bucket.
+ */
+public class RateLimitingOperationSampler implements OperationSampler {
+
+  private final double defaultRate;
+  private final Map<String, Double> rates;
+  private final long nanosPerSpan;
+  private final long burstNanos;
+  /**
+   * Theoretical arrival time of the next span (GCRA form of a token bucket)
+   */
+  private final AtomicLong nextSpanNanos = new AtomicLong(System.nanoTime());
+
+  private RateLimitingOperationSampler(Builder builder) {
+    this.defaultRate = builder.defaultRate;
+    this.rates = new HashMap<>(builder.rates);
+    if (builder.maxSpansPerSecond > 0) {
+      this.nanosPerSpan = (long) (TimeUnit.SECONDS.toNanos(1) / builder.maxSpansPerSecond);
+      this.burstNanos = Math.max(TimeUnit.SECONDS.toNanos(1), nanosPerSpan);
+    } else {
+      this.nanosPerSpan = 0;
+      this.burstNanos = 0;
+    }
+  }
+
+  @Override
+  public boolean sample(String operationName) {
+    Double rate = rates.get(operationName);
+    double threshold = rate == null ? defaultRate : rate;
+    if (threshold <= 0) {
+      return false;
+    }
+    if (threshold < 1 && ThreadLocalRandom.current().nextDouble() >= threshold) {
+      return false;
+    }
+    return nanosPerSpan == 0 || acquire();
+  }
+
+  private boolean acquire() {
+    while (true) {
+      long now = System.nanoTime();
+      long next = nextSpanNanos.get();
+      long updated = Math.max(next, now) + nanosPerSpan;
+      if (updated - now > burstNanos) {
+        return false;
+      }
+      if (nextSpanNanos.compareAndSet(next, updated)) {
+        return true;
+      }
+    }
+  }
+
+  public static class Builder {
+
+    private double defaultRate = 1;
+    private final Map<String, Double> rates = new HashMap<>();
+    private double maxSpansPerSecond;
+
+    /**
+     * @param rate probability in range [0, 1] of sampling operations without an explicit rate
+     */
+    public Builder withDefaultRate(double rate) {
+      this.defaultRate = checkRate(rate);
+      return this;
+    }
+
+    /**
+     * @param operationName name of the operation, e.g. <code>get</code>
+     * @param rate probability in range [0, 1] of sampling the operation
+     */
+    public Builder withRate(String operationName, double rate) {
+      rates.put(operationName, checkRate(rate));
+      return this;
+    }
+
+    /**
+     * @param maxSpansPerSecond maximum number of sampled operations per second across all
+     * operation names, <code>0</code> for no limit
+     */
+    public Builder withMaxSpansPerSecond(double maxSpansPerSecond) {
+      if (maxSpansPerSecond < 0) {
+        throw new IllegalArgumentException("maxSpansPerSecond must not be negative");
+      }
+      this.maxSpansPerSecond = maxSpansPerSecond;
+      return this;
+    }
+
+    public RateLimitingOperationSampler build() {
+      return new RateLimitingOperationSampler(this);
+    }
+
+    private static double checkRate(double rate) {
+      if (rate < 0 || rate > 1) {
+        throw new IllegalArgumentException("rate must be in range [0, 1]");
+      }
+      return rate;
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import io.opentracing.SpanContext;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import net.spy.memcached.internal.GetCompletionListener;
+import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Table of the gets in flight, so that concurrent reads of the same key with the same transcoder
+ * share one memcached request. A get is registered by its leader once submitted and removed when
+ * its future completes, or detached earlier when the key is written so that the following reads
+ * see the write. Only one get per key is shared at a time, whatever its transcoder. Every reader,
+ * the leader included, receives its own future completed from the shared one, so that cancelling
+ * it only gives up that reader's result.
+ */
+class ReadCoalescer {
+
+  private final ConcurrentMap<String, Flight<?>> flights = new ConcurrentHashMap<>();
+  private final long operationTimeout;
+  private final ExecutorService listenerExecutor;
+
+  ReadCoalescer(long operationTimeout, ExecutorService listenerExecutor) {
+    this.operationTimeout = operationTimeout;
+    this.listenerExecutor = listenerExecutor;
+  }
+
+  /**
+   * @return the coalescer or <code>null</code> if read coalescing is disabled
+   */
+  static ReadCoalescer create(TracingConfiguration configuration, long operationTimeout,
+      ExecutorService listenerExecutor) {
+    return configuration.isReadCoalescing()
+        ? new ReadCoalescer(operationTimeout, listenerExecutor) : null;
+  }
+
+  /**
+   * @return the get of the key with the transcoder in flight, or <code>null</code> if there is none
+   */
+  @SuppressWarnings("unchecked")
+  <T> Flight<T> get(String key, Transcoder<T> transcoder) {
+    Flight<?> flight = flights.get(key);
+    return flight == null || flight.transcoder != transcoder ? null : (Flight<T>) flight;
+  }
+
+  /**
+   * Makes the leader's future available to the following reads until it completes. If another
+   * leader registered the key, it is kept and both requests are sent.
+   *
+   * @param leader context of the leader's span, <code>null</code> if it is not traced
+   * @return the leader's own future if the get is shared, otherwise the future itself
+   */
+  <T> GetFuture<T> register(final String key, Transcoder<T> transcoder, GetFuture<T> future,
+      SpanContext leader) {
+    final Flight<T> flight = new Flight<>(future, transcoder, leader);
+    if (future != null && flights.putIfAbsent(key, flight) == null) {
+      future.addListener(new GetCompletionListener() {
+        @Override
+        public void onComplete(GetFuture<?> completed) {
+          flights.remove(key, flight);
+        }
+      });
+      return join(key, flight);
+    }
+    return future;
+  }
+
+  /**
+   * @return a future of the caller's own, completed with the result of the get in flight
+   */
+  <T> GetFuture<T> join(String key, Flight<T> flight) {
+    final GetFuture<T> shared = flight.future;
+    final BatchedGetFuture<T> future =
+        new BatchedGetFuture<>(key, operationTimeout, listenerExecutor);
+    Object operations = FutureOperations.operations(shared);
+    final Operation operation = operations instanceof Operation ? (Operation) operations : null;
+    if (operation != null) {
+      future.setOperation(operation);
+    }
+    shared.addListener(new GetCompletionListener() {
+      @Override
+      public void onComplete(GetFuture<?> completed) {
+        future.complete(operation, FutureOperations.found(shared) == 0 ? null : shared,
+            completed.getStatus());
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Stops sharing the get of the key in flight, which may have been sent before a write of the key
+   */
+  void detach(String key) {
+    flights.remove(key);
+  }
+
+  void clear() {
+    flights.clear();
+  }
+
+  int size() {
+    return flights.size();
+  }
+
+  static final class Flight<T> {
+
+    private final GetFuture<T> future;
+    private final Transcoder<T> transcoder;
+    private final SpanContext leader;
+
+    private Flight(GetFuture<T> future, Transcoder<T> transcoder, SpanContext leader) {
+      this.future = future;
+      this.transcoder = transcoder;
+      this.leader = leader;
+    }
+
+    SpanContext getLeader() {
+      return leader;
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import java.net.SocketAddress;
+
+/**
+ * An operation that took longer than the slow operation threshold, kept by the flight recorder
+ * whether or not it was traced.
+ */
+public class SlowOperation {
+
+  private final long sequence;
+  private final String operationName;
+  private final String key;
+  private final SocketAddress node;
+  private final long startMillis;
+  private final long durationNanos;
+  private final long[] phaseNanos;
+  private final String status;
+  private final String traceId;
+
+  SlowOperation(long sequence, String operationName, String key, SocketAddress node,
+      long startMillis, long durationNanos, long[] phaseNanos, String status, String traceId) {
+    this.sequence = sequence;
+    this.operationName = operationName;
+    this.key = key;
+    this.node = node;
+    this.startMillis = startMillis;
+    this.durationNanos = durationNanos;
+    this.phaseNanos = phaseNanos;
+    this.status = status;
+    this.traceId = traceId;
+  }
+
+  long getSequence() {
+    return sequence;
+  }
+
+  public String getOperationName() {
+    return operationName;
+  }
+
+  /**
+   * @return key of the operation, truncated, or <code>null</code> for operations without key
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * @return primary node of the key or <code>null</code> for operations without key
+   */
+  public SocketAddress getNode() {
+    return node;
+  }
+
+  /**
+   * @return {@link System#currentTimeMillis()} at which the operation started
+   */
+  public long getStartMillis() {
+    return startMillis;
+  }
+
+  public long getDurationNanos() {
+    return durationNanos;
+  }
+
+  /**
+   * @return duration of the phase in nanoseconds or <code>-1</code> if not known
+   */
+  public long getPhaseNanos(OperationPhase phase) {
+    return phaseNanos[phase.ordinal()];
+  }
+
+  /**
+   * @return status code of the completed operation, <code>ERROR</code> if it threw, or
+   * <code>null</code> if not known
+   */
+  public String getStatus() {
+    return status;
+  }
+
+  /**
+   * @return trace id of the operation's span or of the span that was active when an untraced
+   * operation started, <code>null</code> if there was none
+   */
+  public String getTraceId() {
+    return traceId;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder()
+        .append(startMillis).append(' ')
+        .append(operationName)
+        .append(" durationNanos=").append(durationNanos);
+    for (OperationPhase phase : OperationPhase.values()) {
+      if (phaseNanos[phase.ordinal()] >= 0) {
+        builder.append(' ').append(phase.name().toLowerCase()).append("Nanos=")
+            .append(phaseNanos[phase.ordinal()]);
+      }
+    }
+    if (key != null) {
+      builder.append(" key=").append(key);
+    }
+    if (node != null) {
+      builder.append(" node=").append(node);
+    }
+    if (status != null) {
+      builder.append(" status=").append(status);
+    }
+    if (traceId != null) {
+      builder.append(" traceId=").append(traceId);
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free ring buffer of the last slow operations. Writers claim a slot with a single atomic
+ * increment and overwrite the oldest entry; readers copy the slots and order them by sequence.
+ */
+class SlowOperationRecorder {
+
+  private static final Comparator<SlowOperation> NEWEST_FIRST = new Comparator<SlowOperation>() {
+    @Override
+    public int compare(SlowOperation o1, SlowOperation o2) {
+      return Long.compare(o2.getSequence(), o1.getSequence());
+    }
+  };
+
+  private final long thresholdNanos;
+  private final AtomicReferenceArray<SlowOperation> slots;
+  private final AtomicLong sequence = new AtomicLong();
+
+  SlowOperationRecorder(int capacity, long thresholdNanos) {
+    this.thresholdNanos = thresholdNanos;
+    this.slots = new AtomicReferenceArray<>(capacity);
+  }
+
+  boolean isSlow(long nanos) {
+    return nanos >= thresholdNanos;
+  }
+
+  long nextSequence() {
+    return sequence.getAndIncrement();
+  }
+
+  void record(SlowOperation operation) {
+    slots.set((int) (operation.getSequence() % slots.length()), operation);
+  }
+
+  List<SlowOperation> operations() {
+    List<SlowOperation> operations = new ArrayList<>(slots.length());
+    for (int i = 0; i < slots.length(); i++) {
+      SlowOperation operation = slots.get(i);
+      if (operation != null) {
+        operations.add(operation);
+      }
+    }
+    Collections.sort(operations, NEWEST_FIRST);
+    return operations;
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import io.opentracing.Span;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finishes spans on a dedicated thread, so that a slow tracer reporter never delays spymemcached's
+ * listener threads or the callers. Spans that do not fit in the bounded queue are dropped.
+ */
+class SpanFinisher implements Runnable {
+
+  private final BlockingQueue<PendingSpan> queue;
+  private final AtomicLong dropped = new AtomicLong();
+  private final Thread thread;
+  private volatile boolean shutdown;
+
+  SpanFinisher(int capacity) {
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.thread = new Thread(this, "memcached-span-finisher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * @param finishMicros finish timestamp, taken when the operation completed rather than when the
+   * span is finished
+   */
+  void finish(Span span, long finishMicros) {
+    if (shutdown || !queue.offer(new PendingSpan(span, finishMicros))) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  int getPending() {
+    return queue.size();
+  }
+
+  long getDropped() {
+    return dropped.get();
+  }
+
+  /**
+   * Stops the thread after the spans already queued are finished
+   */
+  void shutdown() {
+    shutdown = true;
+    thread.interrupt();
+  }
+
+  @Override
+  public void run() {
+    while (!shutdown) {
+      try {
+        queue.take().finish();
+      } catch (InterruptedException e) {
+        break;
+      } catch (RuntimeException ignore) {
+        // a failing reporter must not stop the thread
+      }
+    }
+    PendingSpan pending;
+    while ((pending = queue.poll()) != null) {
+      try {
+        pending.finish();
+      } catch (RuntimeException ignore) {
+      }
+    }
+  }
+
+  private static class PendingSpan {
+
+    private final Span span;
+    private final long finishMicros;
+
+    PendingSpan(Span span, long finishMicros) {
+      this.span = span;
+      this.finishMicros = finishMicros;
+    }
+
+    void finish() {
+      span.finish(finishMicros);
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import io.opentracing.Span;
+import java.net.SocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import net.spy.memcached.BroadcastOpFactory;
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.OperationFactory;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatsOperation;
+
+/**
+ * Collects the server stats of every node on a background thread and publishes them to {@link
+ * MemcachedClientMetrics}, so that readers never wait for the servers.
+ */
+class StatsPoller implements Runnable {
+
+  private final MemcachedClient client;
+  private final OperationFactory operationFactory;
+  private final TracingHelper helper;
+  private final boolean traced;
+  private final ScheduledExecutorService executor = Executors
+      .newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "memcached-stats-poller");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  StatsPoller(MemcachedClient client, OperationFactory operationFactory, TracingHelper helper,
+      TracingConfiguration configuration) {
+    this.client = client;
+    this.operationFactory = operationFactory;
+    this.helper = helper;
+    this.traced = configuration.isTraceStatsPolling();
+  }
+
+  /**
+   * @return the poller or <code>null</code> if stats polling is disabled
+   */
+  static StatsPoller start(MemcachedClient client, OperationFactory operationFactory,
+      TracingHelper helper, TracingConfiguration configuration) {
+    if (configuration.getStatsPollingIntervalNanos() == 0) {
+      return null;
+    }
+    long interval = configuration.getStatsPollingIntervalNanos();
+    StatsPoller poller = new StatsPoller(client, operationFactory, helper, configuration);
+    poller.executor.scheduleWithFixedDelay(poller, interval, interval, TimeUnit.NANOSECONDS);
+    return poller;
+  }
+
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @Override
+  public void run() {
+    Span span = traced ? helper.buildSpan("statsPolling") : null;
+    // the span is not activated: broadcastOp is not traced and nothing else runs on this thread
+    try {
+      CountDownLatch latch = client.broadcastOp(new BroadcastOpFactory() {
+        @Override
+        public Operation newOp(MemcachedNode node, CountDownLatch latch) {
+          return stats(node.getSocketAddress(), latch);
+        }
+      });
+      if (!latch.await(client.getOperationTimeout(), TimeUnit.MILLISECONDS) && span != null) {
+        span.setTag("timeout", true);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException e) {
+      // the client is shutting down, or a node failed; keep polling on schedule
+      if (span != null) {
+        TracingHelper.onError(e, span);
+      }
+    } finally {
+      if (span != null) {
+        span.finish();
+      }
+    }
+  }
+
+  private Operation stats(final SocketAddress node, final CountDownLatch latch) {
+    final Map<String, String> stats = new HashMap<>();
+    return operationFactory.stats(null, new StatsOperation.Callback() {
+      @Override
+      public void gotStat(String name, String value) {
+        stats.put(name, value);
+      }
+
+      @Override
+      public void receivedStatus(OperationStatus status) {
+        if (status.isSuccess()) {
+          helper.getMetrics().recordNodeStats(
+              new NodeStats(node, System.currentTimeMillis(), stats));
+        }
+      }
+
+      @Override
+      public void complete() {
+        latch.countDown();
+      }
+    });
+  }
+}
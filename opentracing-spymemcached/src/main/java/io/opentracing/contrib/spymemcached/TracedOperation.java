@@ -0,0 +1,420 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.noop.NoopSpan;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.internal.BulkFuture;
+import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.ops.OperationStatus;
+
+/**
+ * One client call: its span, which may be a {@link NoopSpan} when the call is not traced, and the
+ * timestamps used to record its latency and phases on completion.
+ */
+class TracedOperation {
+
+  /**
+   * Calls made by MemcachedClient to its own overridden methods outside of a traced call, neither
+   * traced nor measured
+   */
+  static final TracedOperation NESTED =
+      new TracedOperation(null, null, NoopSpan.INSTANCE, null, null);
+
+  private final String name;
+  private final String key;
+  private final Span span;
+  private final MemcachedNode node;
+  private final TracingHelper helper;
+  private final MemcachedClientMetrics metrics;
+  private final OperationListener listener;
+  private final long startNanos;
+  private final long startEpochMicros;
+  /**
+   * Set for the view of this operation that nested calls receive
+   */
+  private final TracedOperation outer;
+  private TracedOperation nested;
+  private boolean failed;
+  /**
+   * Set for operations answered without sending anything to their node
+   */
+  private boolean unsent;
+  private long submittedNanos;
+  private Object operations;
+  /**
+   * Serialized size of the values stored or retrieved, <code>-1</code> if not recorded
+   */
+  private long payloadBytes = -1;
+  private long encodeNanos = -1;
+  private long decodeNanos = -1;
+  private boolean finished;
+  /**
+   * Number of values found by a get or bulk get, <code>-1</code> if not known
+   */
+  private int found = -1;
+  /**
+   * Number of keys requested by a bulk get that was not, or not entirely, sent to memcached,
+   * <code>-1</code> to count the keys of the submitted operations
+   */
+  private int requested = -1;
+  private OperationStatus status;
+  /**
+   * Context of the span that was active when an untraced operation started, kept for the slow
+   * operation recorder
+   */
+  private SpanContext activeContext;
+
+  TracedOperation(String name, String key, Span span, MemcachedNode node, TracingHelper helper) {
+    this.name = name;
+    this.key = key;
+    this.span = span;
+    this.node = node;
+    this.helper = helper;
+    this.metrics = helper == null ? null : helper.getMetrics();
+    this.listener = helper == null ? null : helper.getOperationListener();
+    this.outer = null;
+    this.startNanos = helper == null ? 0 : System.nanoTime();
+    this.startEpochMicros = span == NoopSpan.INSTANCE ? 0 : System.currentTimeMillis() * 1000;
+  }
+
+  private TracedOperation(TracedOperation outer) {
+    this.name = outer.name;
+    this.key = outer.key;
+    this.span = NoopSpan.INSTANCE;
+    this.node = null;
+    this.helper = null;
+    this.metrics = null;
+    this.listener = null;
+    this.outer = outer;
+    this.startNanos = 0;
+    this.startEpochMicros = 0;
+  }
+
+  /**
+   * @return the view of this operation for calls that MemcachedClient makes to its own overridden
+   * methods: it is neither traced nor measured on its own but reports the submitted operation to
+   * this one
+   */
+  TracedOperation nested() {
+    if (nested == null) {
+      nested = new TracedOperation(this);
+    }
+    return nested;
+  }
+
+  /**
+   * @return <code>true</code> for single key gets
+   */
+  boolean isLookup() {
+    return TracingHelper.READ_OPERATIONS.contains(name);
+  }
+
+  boolean isNested() {
+    return outer != null || this == NESTED;
+  }
+
+  String getName() {
+    return name;
+  }
+
+  Span getSpan() {
+    return span;
+  }
+
+  /**
+   * @return primary node of the operation's key or <code>null</code> for operations without key
+   */
+  MemcachedNode getNode() {
+    return node;
+  }
+
+  <T> OperationFuture<T> submitted(OperationFuture<T> future) {
+    if (onSubmitted(future)) {
+      future.addListener(new TracingOperationCompletionListener(this));
+    }
+    return future;
+  }
+
+  <T> GetFuture<T> submitted(GetFuture<T> future) {
+    if (onSubmitted(future)) {
+      future.addListener(new TracingGetCompletionListener(this));
+    }
+    return future;
+  }
+
+  <T> BulkFuture<Map<String, T>> submitted(BulkFuture<Map<String, T>> future) {
+    if (onSubmitted(future)) {
+      future.addListener(new TracingBulkGetCompletionListener(this));
+    }
+    return future;
+  }
+
+  /**
+   * @return <code>true</code> if the completion of the future finishes this operation
+   */
+  private boolean onSubmitted(Future<?> future) {
+    if (future == null || this == NESTED) {
+      return false;
+    }
+    if (outer != null) {
+      outer.onSubmitted(future);
+      return false;
+    }
+    submittedNanos = System.nanoTime();
+    operations = FutureOperations.operations(future);
+    return true;
+  }
+
+  /**
+   * Called by {@link TracingTranscoder} from the caller's or spymemcached's IO thread
+   */
+  synchronized void addPayloadBytes(int bytes) {
+    payloadBytes = add(payloadBytes, bytes);
+  }
+
+  /**
+   * Called by {@link TracingTranscoder} for {@link OperationPhase#ENCODE} and {@link
+   * OperationPhase#DECODE}. Values of asynchronous gets are usually decoded after the operation
+   * finished, when the caller gets them from the future, and are then only recorded in the metrics.
+   */
+  synchronized void addTranscodeNanos(OperationPhase phase, long nanos) {
+    if (finished) {
+      metrics.recordPhase(name, phase, nanos);
+    } else if (phase == OperationPhase.ENCODE) {
+      encodeNanos = add(encodeNanos, nanos);
+    } else {
+      decodeNanos = add(decodeNanos, nanos);
+    }
+  }
+
+  private static long add(long total, long value) {
+    return total < 0 ? value : total + value;
+  }
+
+  private synchronized void finishTranscoding() {
+    finished = true;
+    if (payloadBytes >= 0) {
+      metrics.recordPayloadSize(name, payloadBytes);
+      span.setTag("payload.bytes", payloadBytes);
+    }
+    if (encodeNanos >= 0) {
+      metrics.recordPhase(name, OperationPhase.ENCODE, encodeNanos);
+      span.setTag("encode.nanos", encodeNanos);
+    }
+    if (decodeNanos >= 0) {
+      metrics.recordPhase(name, OperationPhase.DECODE, decodeNanos);
+      span.setTag("decode.nanos", decodeNanos);
+    }
+  }
+
+  /**
+   * Marks the operation as answered by the client alone, so that its latency is not recorded as
+   * its node's
+   */
+  void unsent() {
+    unsent = true;
+  }
+
+  /**
+   * @param found number of values received by a get or bulk get, <code>-1</code> if not known
+   */
+  void found(int found) {
+    this.found = found;
+  }
+
+  /**
+   * @param requested number of keys requested by a bulk get, including the ones served without
+   * asking memcached
+   * @param found number of values received
+   */
+  void found(int requested, int found) {
+    this.requested = requested;
+    this.found = found;
+  }
+
+  void setActiveContext(SpanContext activeContext) {
+    this.activeContext = activeContext;
+  }
+
+  void onError(Throwable throwable) {
+    if (isNested()) {
+      return;
+    }
+    failed = true;
+    TracingHelper.onError(throwable, span);
+  }
+
+  /**
+   * Called by the completion listeners on spymemcached's listener executor
+   */
+  void completed(Future<?> future, OperationStatus status) {
+    long listenerStartNanos = System.nanoTime();
+    if (future instanceof BulkFuture || isLookup()) {
+      found(FutureOperations.found(future));
+    }
+    finish(status);
+    if (!isNested()) {
+      metrics.recordListenerTime(System.nanoTime() - listenerStartNanos);
+    }
+  }
+
+  void finish(OperationStatus status) {
+    if (isNested()) {
+      return;
+    }
+    TracingHelper.setStatus(span, status);
+    this.status = status;
+    failed |= isFailure(status);
+    finish();
+  }
+
+  void finish() {
+    if (isNested()) {
+      return;
+    }
+    long endNanos = System.nanoTime();
+    long nanos = endNanos - startNanos;
+    metrics.recordLatency(name, nanos);
+    if (node != null && !unsent) {
+      metrics.recordNodeLatency(node.getSocketAddress(), nanos, failed);
+      CircuitBreaker circuitBreaker = metrics.getCircuitBreaker();
+      if (circuitBreaker != null && submittedNanos != 0) {
+        circuitBreaker.record(node.getSocketAddress(), this, nanos, failed, span);
+      }
+    }
+    if (submittedNanos != 0) {
+      recordPhases(endNanos);
+    }
+    if (found >= 0 && !failed) {
+      recordHits();
+    }
+    finishTranscoding();
+    if (metrics.isSlow(nanos)) {
+      recordSlowOperation(endNanos, nanos);
+    }
+    if (listener != null) {
+      notifyListener(nanos);
+    }
+    if (span != NoopSpan.INSTANCE) {
+      helper.finishSpan(span, startEpochMicros + nanos / 1000);
+    }
+  }
+
+  private void notifyListener(long nanos) {
+    long bytes;
+    synchronized (this) {
+      bytes = payloadBytes;
+    }
+    try {
+      listener.onOperation(name, key, node == null ? null : node.getSocketAddress(), nanos, bytes,
+          statusCode());
+    } catch (RuntimeException ignore) {
+      // a failing listener must not prevent the span from being finished
+    }
+  }
+
+  private String statusCode() {
+    if (status != null) {
+      return status.getStatusCode() == null ? status.getMessage() : status.getStatusCode().name();
+    }
+    return failed ? "ERROR" : null;
+  }
+
+  private void recordSlowOperation(long endNanos, long nanos) {
+    long[] phases = new long[OperationPhase.values().length];
+    Arrays.fill(phases, -1);
+    if (submittedNanos != 0) {
+      phases[OperationPhase.ENQUEUE.ordinal()] = submittedNanos - startNanos;
+      long writtenNanos = FutureOperations.writtenNanos(operations);
+      if (writtenNanos != 0 && writtenNanos - submittedNanos >= 0) {
+        phases[OperationPhase.WRITE.ordinal()] = writtenNanos - submittedNanos;
+        phases[OperationPhase.RESPONSE.ordinal()] = endNanos - writtenNanos;
+      }
+    }
+    synchronized (this) {
+      phases[OperationPhase.ENCODE.ordinal()] = encodeNanos;
+      phases[OperationPhase.DECODE.ordinal()] = decodeNanos;
+    }
+    SpanContext context = span == NoopSpan.INSTANCE ? activeContext : span.context();
+    String traceId = context == null ? null : context.toTraceId();
+    metrics.recordSlowOperation(name, key, node == null ? null : node.getSocketAddress(),
+        System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(nanos), nanos, phases,
+        statusCode(), traceId == null || traceId.isEmpty() ? null : traceId);
+  }
+
+  private void recordHits() {
+    if (this.requested >= 0 || operations instanceof Collection) {
+      int requested =
+          this.requested >= 0 ? this.requested : FutureOperations.keyCount(operations);
+      if (requested >= found) {
+        metrics.recordLookups(name, requested, found);
+        span.setTag("keys.requested", requested);
+        span.setTag("keys.found", found);
+      }
+    } else {
+      metrics.recordLookups(name, 1, found > 0 ? 1 : 0);
+      span.setTag("cache.hit", found > 0);
+    }
+  }
+
+  private void recordPhases(long endNanos) {
+    metrics.recordPhase(name, OperationPhase.ENQUEUE, submittedNanos - startNanos);
+    log(submittedNanos, "enqueued");
+    long writtenNanos = FutureOperations.writtenNanos(operations);
+    if (writtenNanos != 0 && writtenNanos - submittedNanos >= 0) {
+      metrics.recordPhase(name, OperationPhase.WRITE, writtenNanos - submittedNanos);
+      metrics.recordPhase(name, OperationPhase.RESPONSE, endNanos - writtenNanos);
+      log(writtenNanos, "written");
+    }
+    log(endNanos, "completed");
+  }
+
+  private void log(long nanos, String event) {
+    if (span != NoopSpan.INSTANCE) {
+      span.log(startEpochMicros + (nanos - startNanos) / 1000, event);
+    }
+  }
+
+  /**
+   * Statuses that mean the node did not serve the operation, as opposed to misses, CAS conflicts
+   * and other regular outcomes.
+   */
+  static boolean isFailure(OperationStatus status) {
+    if (status == null || status.isSuccess() || status.getStatusCode() == null) {
+      return false;
+    }
+    switch (status.getStatusCode()) {
+      case CANCELLED:
+      case INTERRUPTED:
+      case TIMEDOUT:
+      case ERR_CLIENT:
+      case ERR_INTERNAL:
+      case ERR_BUSY:
+      case ERR_TEMP_FAIL:
+      case ERR_NO_MEM:
+        return true;
+      default:
+        return false;
+    }
+  }
+}
@@ -13,23 +13,20 @@
  */
 package io.opentracing.contrib.spymemcached;
 
-import io.opentracing.Span;
 import net.spy.memcached.internal.BulkGetCompletionListener;
 import net.spy.memcached.internal.BulkGetFuture;
-import net.spy.memcached.ops.OperationStatus;
 
 class TracingBulkGetCompletionListener implements
     BulkGetCompletionListener {
 
-  private final Span span;
+  private final TracedOperation operation;
 
-  TracingBulkGetCompletionListener(Span span) {
-    this.span = span;
+  TracingBulkGetCompletionListener(TracedOperation operation) {
+    this.operation = operation;
   }
 
   @Override
   public void onComplete(BulkGetFuture<?> future) {
-    OperationStatus status = future.getStatus();
-    TracingHelper.setStatusAndFinish(span, status);
+    operation.completed(future, future.getStatus());
   }
 }
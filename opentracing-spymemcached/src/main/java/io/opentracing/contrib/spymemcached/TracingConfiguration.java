@@ -0,0 +1,557 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import io.opentracing.Tracer;
+import io.opentracing.util.GlobalTracer;
+import java.util.concurrent.TimeUnit;
+
+public class TracingConfiguration {
+
+  static final int DEFAULT_VALUE_MAX_LENGTH = 128;
+  static final int DEFAULT_KEYS_SAMPLE_SIZE = 10;
+  static final long DEFAULT_HOT_KEY_WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+  static final int DEFAULT_CIRCUIT_BREAKER_MINIMUM_CALLS = 20;
+  static final long DEFAULT_CIRCUIT_BREAKER_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  private final Tracer tracer;
+  private final boolean traceWithActiveSpanOnly;
+  private final ValueTagging valueTagging;
+  private final int valueMaxLength;
+  private final int keysSampleSize;
+  private final OperationSampler sampler;
+  private final int hotKeyCapacity;
+  private final long hotKeyWindowNanos;
+  private final long queueDepthSamplingIntervalNanos;
+  private final boolean transcoderTracking;
+  private final long statsPollingIntervalNanos;
+  private final boolean traceStatsPolling;
+  private final boolean traceReconnects;
+  private final int slowOperationCapacity;
+  private final long slowOperationThresholdNanos;
+  private final OperationListener operationListener;
+  private final int spanFinishingQueueCapacity;
+  private final int nearCacheMaximumSize;
+  private final long nearCacheTtlNanos;
+  private final int negativeCacheMaximumSize;
+  private final long negativeCacheTtlNanos;
+  private final boolean readCoalescing;
+  private final int getBatchMaxSize;
+  private final long getBatchWindowNanos;
+  private final String deadlineBaggageItem;
+  private final double circuitBreakerFailureRate;
+  private final long circuitBreakerSlowCallNanos;
+  private final long circuitBreakerOpenNanos;
+  private final int circuitBreakerMinimumCalls;
+  private final long circuitBreakerWindowNanos;
+  private final CircuitBreakerWritePolicy circuitBreakerWritePolicy;
+
+  private TracingConfiguration(Builder builder) {
+    this.tracer = builder.tracer;
+    this.traceWithActiveSpanOnly = builder.traceWithActiveSpanOnly;
+    this.valueTagging = builder.valueTagging;
+    this.valueMaxLength = builder.valueMaxLength;
+    this.keysSampleSize = builder.keysSampleSize;
+    this.sampler = builder.sampler;
+    this.hotKeyCapacity = builder.hotKeyCapacity;
+    this.hotKeyWindowNanos = builder.hotKeyWindowNanos;
+    this.queueDepthSamplingIntervalNanos = builder.queueDepthSamplingIntervalNanos;
+    this.transcoderTracking = builder.transcoderTracking;
+    this.statsPollingIntervalNanos = builder.statsPollingIntervalNanos;
+    this.traceStatsPolling = builder.traceStatsPolling;
+    this.traceReconnects = builder.traceReconnects;
+    this.slowOperationCapacity = builder.slowOperationCapacity;
+    this.slowOperationThresholdNanos = builder.slowOperationThresholdNanos;
+    this.operationListener = builder.operationListener;
+    this.spanFinishingQueueCapacity = builder.spanFinishingQueueCapacity;
+    this.nearCacheMaximumSize = builder.nearCacheMaximumSize;
+    this.nearCacheTtlNanos = builder.nearCacheTtlNanos;
+    this.negativeCacheMaximumSize = builder.negativeCacheMaximumSize;
+    this.negativeCacheTtlNanos = builder.negativeCacheTtlNanos;
+    this.readCoalescing = builder.readCoalescing;
+    this.getBatchMaxSize = builder.getBatchMaxSize;
+    this.getBatchWindowNanos = builder.getBatchWindowNanos;
+    this.deadlineBaggageItem = builder.deadlineBaggageItem;
+    this.circuitBreakerFailureRate = builder.circuitBreakerFailureRate;
+    this.circuitBreakerSlowCallNanos = builder.circuitBreakerSlowCallNanos;
+    this.circuitBreakerOpenNanos = builder.circuitBreakerOpenNanos;
+    this.circuitBreakerMinimumCalls = builder.circuitBreakerMinimumCalls;
+    this.circuitBreakerWindowNanos = builder.circuitBreakerWindowNanos;
+    this.circuitBreakerWritePolicy = builder.circuitBreakerWritePolicy;
+  }
+
+  public Tracer getTracer() {
+    return tracer;
+  }
+
+  public boolean isTraceWithActiveSpanOnly() {
+    return traceWithActiveSpanOnly;
+  }
+
+  public ValueTagging getValueTagging() {
+    return valueTagging;
+  }
+
+  public int getValueMaxLength() {
+    return valueMaxLength;
+  }
+
+  public int getKeysSampleSize() {
+    return keysSampleSize;
+  }
+
+  public OperationSampler getSampler() {
+    return sampler;
+  }
+
+  public int getHotKeyCapacity() {
+    return hotKeyCapacity;
+  }
+
+  public long getHotKeyWindowNanos() {
+    return hotKeyWindowNanos;
+  }
+
+  public long getQueueDepthSamplingIntervalNanos() {
+    return queueDepthSamplingIntervalNanos;
+  }
+
+  public boolean isTranscoderTracking() {
+    return transcoderTracking;
+  }
+
+  public long getStatsPollingIntervalNanos() {
+    return statsPollingIntervalNanos;
+  }
+
+  public boolean isTraceStatsPolling() {
+    return traceStatsPolling;
+  }
+
+  public boolean isTraceReconnects() {
+    return traceReconnects;
+  }
+
+  public int getSlowOperationCapacity() {
+    return slowOperationCapacity;
+  }
+
+  public long getSlowOperationThresholdNanos() {
+    return slowOperationThresholdNanos;
+  }
+
+  public OperationListener getOperationListener() {
+    return operationListener;
+  }
+
+  public int getSpanFinishingQueueCapacity() {
+    return spanFinishingQueueCapacity;
+  }
+
+  public int getNearCacheMaximumSize() {
+    return nearCacheMaximumSize;
+  }
+
+  public long getNearCacheTtlNanos() {
+    return nearCacheTtlNanos;
+  }
+
+  public int getNegativeCacheMaximumSize() {
+    return negativeCacheMaximumSize;
+  }
+
+  public long getNegativeCacheTtlNanos() {
+    return negativeCacheTtlNanos;
+  }
+
+  public boolean isReadCoalescing() {
+    return readCoalescing;
+  }
+
+  public int getGetBatchMaxSize() {
+    return getBatchMaxSize;
+  }
+
+  public long getGetBatchWindowNanos() {
+    return getBatchWindowNanos;
+  }
+
+  public String getDeadlineBaggageItem() {
+    return deadlineBaggageItem;
+  }
+
+  public double getCircuitBreakerFailureRate() {
+    return circuitBreakerFailureRate;
+  }
+
+  public long getCircuitBreakerSlowCallNanos() {
+    return circuitBreakerSlowCallNanos;
+  }
+
+  public long getCircuitBreakerOpenNanos() {
+    return circuitBreakerOpenNanos;
+  }
+
+  public int getCircuitBreakerMinimumCalls() {
+    return circuitBreakerMinimumCalls;
+  }
+
+  public long getCircuitBreakerWindowNanos() {
+    return circuitBreakerWindowNanos;
+  }
+
+  public CircuitBreakerWritePolicy getCircuitBreakerWritePolicy() {
+    return circuitBreakerWritePolicy;
+  }
+
+  public static class Builder {
+
+    private final Tracer tracer;
+    private boolean traceWithActiveSpanOnly;
+    private ValueTagging valueTagging = ValueTagging.TYPE;
+    private int valueMaxLength = DEFAULT_VALUE_MAX_LENGTH;
+    private int keysSampleSize = DEFAULT_KEYS_SAMPLE_SIZE;
+    private OperationSampler sampler;
+    private int hotKeyCapacity;
+    private long hotKeyWindowNanos = DEFAULT_HOT_KEY_WINDOW_NANOS;
+    private long queueDepthSamplingIntervalNanos;
+    private boolean transcoderTracking;
+    private long statsPollingIntervalNanos;
+    private boolean traceStatsPolling;
+    private boolean traceReconnects;
+    private int slowOperationCapacity;
+    private long slowOperationThresholdNanos;
+    private OperationListener operationListener;
+    private int spanFinishingQueueCapacity;
+    private int nearCacheMaximumSize;
+    private long nearCacheTtlNanos;
+    private int negativeCacheMaximumSize;
+    private long negativeCacheTtlNanos;
+    private boolean readCoalescing;
+    private int getBatchMaxSize;
+    private long getBatchWindowNanos;
+    private String deadlineBaggageItem;
+    private double circuitBreakerFailureRate;
+    private long circuitBreakerSlowCallNanos;
+    private long circuitBreakerOpenNanos;
+    private int circuitBreakerMinimumCalls = DEFAULT_CIRCUIT_BREAKER_MINIMUM_CALLS;
+    private long circuitBreakerWindowNanos = DEFAULT_CIRCUIT_BREAKER_WINDOW_NANOS;
+    private CircuitBreakerWritePolicy circuitBreakerWritePolicy = CircuitBreakerWritePolicy.DROP;
+
+    /**
+     * GlobalTracer is used to get tracer
+     */
+    public Builder() {
+      this(GlobalTracer.get());
+    }
+
+    public Builder(Tracer tracer) {
+      this.tracer = tracer;
+    }
+
+    /**
+     * @param traceWithActiveSpanOnly if <code>true</code> then create new spans only if there is an
+     * active span
+     */
+    public Builder traceWithActiveSpanOnly(boolean traceWithActiveSpanOnly) {
+      this.traceWithActiveSpanOnly = traceWithActiveSpanOnly;
+      return this;
+    }
+
+    /**
+     * @param valueTagging how stored values are tagged on write spans, {@link ValueTagging#TYPE}
+     * by default
+     */
+    public Builder withValueTagging(ValueTagging valueTagging) {
+      if (valueTagging == null) {
+        throw new IllegalArgumentException("valueTagging must not be null");
+      }
+      this.valueTagging = valueTagging;
+      return this;
+    }
+
+    /**
+     * @param valueMaxLength maximum number of characters tagged with {@link
+     * ValueTagging#TRUNCATED}
+     */
+    public Builder withValueMaxLength(int valueMaxLength) {
+      if (valueMaxLength < 0) {
+        throw new IllegalArgumentException("valueMaxLength must not be negative");
+      }
+      this.valueMaxLength = valueMaxLength;
+      return this;
+    }
+
+    /**
+     * @param keysSampleSize maximum number of keys tagged on bulk get spans, <code>0</code> to tag
+     * only the key count and fingerprint
+     */
+    public Builder withKeysSampleSize(int keysSampleSize) {
+      if (keysSampleSize < 0) {
+        throw new IllegalArgumentException("keysSampleSize must not be negative");
+      }
+      this.keysSampleSize = keysSampleSize;
+      return this;
+    }
+
+    /**
+     * @param sampler decides per operation whether a span is created, all operations are traced if
+     * not set
+     */
+    public Builder withSampler(OperationSampler sampler) {
+      this.sampler = sampler;
+      return this;
+    }
+
+    /**
+     * @param capacity number of keys tracked for each of reads and writes to report the hottest
+     * keys, <code>0</code> (default) disables hot key tracking
+     */
+    public Builder withHotKeyTracking(int capacity) {
+      if (capacity < 0) {
+        throw new IllegalArgumentException("capacity must not be negative");
+      }
+      this.hotKeyCapacity = capacity;
+      return this;
+    }
+
+    /**
+     * @param window duration over which key accesses are counted, one minute by default
+     */
+    public Builder withHotKeyWindow(long window, TimeUnit unit) {
+      if (window <= 0) {
+        throw new IllegalArgumentException("window must be positive");
+      }
+      this.hotKeyWindowNanos = unit.toNanos(window);
+      return this;
+    }
+
+    /**
+     * @param transcoderTracking if <code>true</code> then transcoders of traced operations are
+     * wrapped to record the serialized size of stored and retrieved values and the time spent
+     * encoding and decoding them
+     */
+    public Builder withTranscoderTracking(boolean transcoderTracking) {
+      this.transcoderTracking = transcoderTracking;
+      return this;
+    }
+
+    /**
+     * @param interval interval at which the queue depths of every node are sampled in the
+     * background for the <code>queue.depth</code> tags of spans, <code>0</code> (default) disables
+     * the sampling and the tags
+     */
+    public Builder withQueueDepthSampling(long interval, TimeUnit unit) {
+      if (interval < 0) {
+        throw new IllegalArgumentException("interval must not be negative");
+      }
+      this.queueDepthSamplingIntervalNanos = unit.toNanos(interval);
+      return this;
+    }
+
+    /**
+     * @param interval interval at which the server stats of every node are collected in the
+     * background, <code>0</code> (default) disables stats polling
+     */
+    public Builder withStatsPolling(long interval, TimeUnit unit) {
+      if (interval < 0) {
+        throw new IllegalArgumentException("interval must not be negative");
+      }
+      this.statsPollingIntervalNanos = unit.toNanos(interval);
+      return this;
+    }
+
+    /**
+     * @param traceStatsPolling if <code>true</code> then every stats collection is traced, by
+     * default it is not
+     */
+    public Builder traceStatsPolling(boolean traceStatsPolling) {
+      this.traceStatsPolling = traceStatsPolling;
+      return this;
+    }
+
+    /**
+     * @param traceReconnects if <code>true</code> then a span covering the time a node was
+     * disconnected is reported when its connection is established again
+     */
+    public Builder traceReconnects(boolean traceReconnects) {
+      this.traceReconnects = traceReconnects;
+      return this;
+    }
+
+    /**
+     * @param capacity number of slow operations kept by the flight recorder, <code>0</code>
+     * (default) disables it
+     * @param threshold latency from which an operation is recorded, traced or not
+     */
+    public Builder withSlowOperationRecorder(int capacity, long threshold, TimeUnit unit) {
+      if (capacity < 0) {
+        throw new IllegalArgumentException("capacity must not be negative");
+      }
+      if (threshold < 0) {
+        throw new IllegalArgumentException("threshold must not be negative");
+      }
+      this.slowOperationCapacity = capacity;
+      this.slowOperationThresholdNanos = unit.toNanos(threshold);
+      return this;
+    }
+
+    /**
+     * @param operationListener receives every completed operation, traced or not
+     */
+    public Builder withOperationListener(OperationListener operationListener) {
+      this.operationListener = operationListener;
+      return this;
+    }
+
+    /**
+     * @param capacity if positive then spans are finished on a dedicated thread instead of
+     * spymemcached's listener threads and the callers' threads, and spans that do not fit in a
+     * queue of this capacity are dropped. <code>0</code> (default) finishes spans directly.
+     */
+    public Builder withSpanFinishingQueue(int capacity) {
+      if (capacity < 0) {
+        throw new IllegalArgumentException("capacity must not be negative");
+      }
+      this.spanFinishingQueueCapacity = capacity;
+      return this;
+    }
+
+    /**
+     * @param maximumSize number of values kept in an in-process cache in front of memcached,
+     * <code>0</code> (default) disables the near cache
+     * @param ttl time after which a cached value is read from memcached again, shortened to the
+     * expiration of values written through the client
+     */
+    public Builder withNearCache(int maximumSize, long ttl, TimeUnit unit) {
+      if (maximumSize < 0) {
+        throw new IllegalArgumentException("maximumSize must not be negative");
+      }
+      if (ttl <= 0) {
+        throw new IllegalArgumentException("ttl must be positive");
+      }
+      this.nearCacheMaximumSize = maximumSize;
+      this.nearCacheTtlNanos = unit.toNanos(ttl);
+      return this;
+    }
+
+    /**
+     * @param maximumSize number of keys that were not found remembered to answer the following
+     * reads without asking memcached, <code>0</code> (default) disables the negative cache
+     * @param ttl time after which a key that was not found is read from memcached again
+     */
+    public Builder withNegativeCache(int maximumSize, long ttl, TimeUnit unit) {
+      if (maximumSize < 0) {
+        throw new IllegalArgumentException("maximumSize must not be negative");
+      }
+      if (ttl <= 0) {
+        throw new IllegalArgumentException("ttl must be positive");
+      }
+      this.negativeCacheMaximumSize = maximumSize;
+      this.negativeCacheTtlNanos = unit.toNanos(ttl);
+      return this;
+    }
+
+    /**
+     * @param readCoalescing if <code>true</code> then concurrent <code>get</code> and
+     * <code>asyncGet</code> calls for the same key and transcoder share the request in flight
+     */
+    public Builder withReadCoalescing(boolean readCoalescing) {
+      this.readCoalescing = readCoalescing;
+      return this;
+    }
+
+    /**
+     * @param maxBatchSize maximum number of keys of <code>get</code> and <code>asyncGet</code>
+     * calls sent together as one bulk get, <code>0</code> (default) disables get batching
+     * @param window time a get waits for other gets to join its batch
+     */
+    public Builder withGetBatching(int maxBatchSize, long window, TimeUnit unit) {
+      if (maxBatchSize < 0) {
+        throw new IllegalArgumentException("maxBatchSize must not be negative");
+      }
+      if (window <= 0) {
+        throw new IllegalArgumentException("window must be positive");
+      }
+      this.getBatchMaxSize = maxBatchSize;
+      this.getBatchWindowNanos = unit.toNanos(window);
+      return this;
+    }
+
+    /**
+     * @param name baggage item of the active span holding a deadline in milliseconds since the
+     * epoch, honoured like an active {@link Deadline}. <code>null</code> (default) ignores baggage.
+     */
+    public Builder withDeadlineBaggageItem(String name) {
+      this.deadlineBaggageItem = name;
+      return this;
+    }
+
+    /**
+     * @param failureRate share of the recent operations of a node, between 0 and 1, that must have
+     * failed or been slow to open its circuit, <code>0</code> (default) disables the circuit
+     * breaker
+     * @param slowCall latency from which an operation counts as slow
+     * @param openDuration time during which operations are not sent to a node whose circuit
+     * opened, before one is let through to probe it
+     */
+    public Builder withCircuitBreaker(double failureRate, long slowCall, long openDuration,
+        TimeUnit unit) {
+      if (failureRate < 0 || failureRate > 1) {
+        throw new IllegalArgumentException("failureRate must be between 0 and 1");
+      }
+      if (slowCall <= 0 || openDuration <= 0) {
+        throw new IllegalArgumentException("slowCall and openDuration must be positive");
+      }
+      this.circuitBreakerFailureRate = failureRate;
+      this.circuitBreakerSlowCallNanos = unit.toNanos(slowCall);
+      this.circuitBreakerOpenNanos = unit.toNanos(openDuration);
+      return this;
+    }
+
+    /**
+     * @param minimumCalls number of operations a node must have completed within the window
+     * before its circuit can open, 20 by default
+     * @param window duration over which failed and slow operations are counted, 10 seconds by
+     * default
+     */
+    public Builder withCircuitBreakerWindow(int minimumCalls, long window, TimeUnit unit) {
+      if (minimumCalls <= 0) {
+        throw new IllegalArgumentException("minimumCalls must be positive");
+      }
+      if (window <= 0) {
+        throw new IllegalArgumentException("window must be positive");
+      }
+      this.circuitBreakerMinimumCalls = minimumCalls;
+      this.circuitBreakerWindowNanos = unit.toNanos(window);
+      return this;
+    }
+
+    /**
+     * @param writePolicy what happens to writes for a node whose circuit is open, {@link
+     * CircuitBreakerWritePolicy#DROP} by default
+     */
+    public Builder withCircuitBreakerWritePolicy(CircuitBreakerWritePolicy writePolicy) {
+      if (writePolicy == null) {
+        throw new IllegalArgumentException("writePolicy must not be null");
+      }
+      this.circuitBreakerWritePolicy = writePolicy;
+      return this;
+    }
+
+    public TracingConfiguration build() {
+      return new TracingConfiguration(this);
+    }
+  }
+}
@@ -13,22 +13,19 @@
  */
 package io.opentracing.contrib.spymemcached;
 
-import io.opentracing.Span;
 import net.spy.memcached.internal.GetCompletionListener;
 import net.spy.memcached.internal.GetFuture;
-import net.spy.memcached.ops.OperationStatus;
 
 class TracingGetCompletionListener implements GetCompletionListener {
 
-  private final Span span;
+  private final TracedOperation operation;
 
-  TracingGetCompletionListener(Span span) {
-    this.span = span;
+  TracingGetCompletionListener(TracedOperation operation) {
+    this.operation = operation;
   }
 
   @Override
   public void onComplete(GetFuture<?> future) {
-    OperationStatus status = future.getStatus();
-    TracingHelper.setStatusAndFinish(span, status);
+    operation.completed(future, future.getStatus());
   }
 }
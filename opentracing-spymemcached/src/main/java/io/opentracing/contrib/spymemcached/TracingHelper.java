@@ -13,31 +13,231 @@
  */
 package io.opentracing.contrib.spymemcached;
 
+import io.opentracing.References;
 import io.opentracing.Scope;
 import io.opentracing.Span;
+import io.opentracing.SpanContext;
 import io.opentracing.Tracer;
 import io.opentracing.Tracer.SpanBuilder;
 import io.opentracing.noop.NoopSpan;
 import io.opentracing.tag.Tags;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import net.spy.memcached.MemcachedConnection;
+import net.spy.memcached.MemcachedNode;
 import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.transcoders.Transcoder;
 
 class TracingHelper {
 
   private final Tracer tracer;
   private final boolean traceWithActiveSpanOnly;
+  private final ValueTagging valueTagging;
+  private final int valueMaxLength;
+  private final int keysSampleSize;
+  private final OperationSampler sampler;
+  private final boolean transcoderTracking;
+  private final boolean traceReconnects;
+  private final OperationListener operationListener;
+  private final SpanFinisher spanFinisher;
+  private final MemcachedClientMetrics metrics;
+  private final MemcachedConnection connection;
+  private final String deadlineBaggageItem;
+  private final ThreadLocal<CallDepth> callDepth = new ThreadLocal<CallDepth>() {
+    @Override
+    protected CallDepth initialValue() {
+      return new CallDepth();
+    }
+  };
+  static final Set<String> READ_OPERATIONS = new HashSet<>(Arrays.asList(
+      "get", "asyncGet", "gets", "asyncGets", "getAndTouch", "asyncGetAndTouch"));
   static final String COMPONENT_NAME = "java-memcached";
   static final String DB_TYPE = "memcached";
 
-  TracingHelper(Tracer tracer, boolean traceWithActiveSpanOnly) {
-    this.tracer = tracer;
-    this.traceWithActiveSpanOnly = traceWithActiveSpanOnly;
+  TracingHelper(TracingConfiguration configuration) {
+    this(configuration, null, null);
+  }
+
+  /**
+   * @param listenerExecutor spymemcached's executor running the completion listeners, only used
+   * to report its load
+   */
+  TracingHelper(TracingConfiguration configuration, MemcachedConnection connection,
+      ExecutorService listenerExecutor) {
+    this.connection = connection;
+    this.tracer = configuration.getTracer();
+    this.traceWithActiveSpanOnly = configuration.isTraceWithActiveSpanOnly();
+    this.valueTagging = configuration.getValueTagging();
+    this.valueMaxLength = configuration.getValueMaxLength();
+    this.keysSampleSize = configuration.getKeysSampleSize();
+    this.sampler = configuration.getSampler();
+    this.transcoderTracking = configuration.isTranscoderTracking();
+    this.deadlineBaggageItem = configuration.getDeadlineBaggageItem();
+    this.traceReconnects = configuration.isTraceReconnects();
+    this.operationListener = configuration.getOperationListener();
+    this.spanFinisher = configuration.getSpanFinishingQueueCapacity() > 0
+        ? new SpanFinisher(configuration.getSpanFinishingQueueCapacity()) : null;
+    this.metrics = new MemcachedClientMetrics(configuration, connection, listenerExecutor,
+        spanFinisher);
+  }
+
+  TracedOperation start(String operationName) {
+    TracedOperation current = callDepth.get().current;
+    if (current != null) {
+      return current.nested();
+    }
+    return started(new TracedOperation(operationName, null, buildSpan(operationName), null,
+        this));
+  }
+
+  TracedOperation start(String operationName, String key) {
+    return start(operationName, key, null);
+  }
+
+  /**
+   * @param followsFrom context of the span of the request this operation waits for instead of
+   * sending its own, <code>null</code> if there is none
+   */
+  TracedOperation start(String operationName, String key, SpanContext followsFrom) {
+    TracedOperation current = callDepth.get().current;
+    if (current != null) {
+      return current.nested();
+    }
+    if (READ_OPERATIONS.contains(operationName)) {
+      metrics.recordRead(key);
+    } else {
+      metrics.recordWrite(key);
+    }
+    MemcachedNode node = primary(key);
+    Span span = buildSpan(operationName, key, followsFrom);
+    if (node != null && span != NoopSpan.INSTANCE) {
+      tagPeer(span, node.getSocketAddress());
+      tagQueueDepth(span, node);
+      if (!node.isActive()) {
+        span.setTag("node.down", true);
+      }
+    }
+    return started(new TracedOperation(operationName, key, span, node, this));
+  }
+
+  /**
+   * Keeps the trace of untraced operations for the slow operation recorder
+   */
+  private TracedOperation started(TracedOperation operation) {
+    if (metrics.isRecordingSlowOperations() && operation.getSpan() == NoopSpan.INSTANCE) {
+      Span active = tracer.activeSpan();
+      if (active != null) {
+        operation.setActiveContext(active.context());
+      }
+    }
+    return operation;
+  }
+
+  /**
+   * Resolves the node through the connection's locator; {@link
+   * net.spy.memcached.MemcachedClient#getNodeLocator()} would copy the whole locator on every call.
+   */
+  private MemcachedNode primary(String key) {
+    if (connection == null || key == null) {
+      return null;
+    }
+    return connection.getLocator().getPrimary(key);
+  }
+
+  static void tagPeer(Span span, SocketAddress address) {
+    if (address instanceof InetSocketAddress) {
+      InetSocketAddress inetAddress = (InetSocketAddress) address;
+      Tags.PEER_HOSTNAME.set(span, inetAddress.getHostString());
+      Tags.PEER_PORT.set(span, inetAddress.getPort());
+    } else {
+      span.setTag("peer.address", nullable(address));
+    }
+  }
+
+  /**
+   * Tags the operations queued for the node at the last sample, so that time spent waiting behind
+   * them can be told apart from network or server latency. The queues are not read here since
+   * that takes the locks of the IO thread.
+   */
+  private void tagQueueDepth(Span span, MemcachedNode node) {
+    QueueDepth depth = metrics.getSampledQueueDepth(node);
+    if (depth != null) {
+      span.setTag("queue.depth", depth.getTotal());
+      span.setTag("queue.input", depth.getInput());
+    }
+  }
+
+  /**
+   * @return the transcoder to pass to MemcachedClient for the operation, wrapped to record payload
+   * sizes and transcoding time if transcoder tracking is enabled and the operation is traced.
+   * Operations that are not traced use the transcoder as is, without allocating a wrapper.
+   */
+  <T> Transcoder<T> transcoder(TracedOperation operation, Transcoder<T> transcoder) {
+    if (!transcoderTracking || transcoder == null || operation.isNested()
+        || operation.getSpan() == NoopSpan.INSTANCE) {
+      return transcoder;
+    }
+    return new TracingTranscoder<>(transcoder, operation);
+  }
+
+  void connectionLost(SocketAddress address) {
+    metrics.connectionLost(address);
+  }
+
+  /**
+   * Records the reconnection and reports its span, which starts when the connection was lost.
+   * Reconnect spans have no parent, so they are only subject to the sampler.
+   */
+  void connectionEstablished(SocketAddress address, int reconnectCount) {
+    long downNanos = metrics.connectionEstablished(address);
+    if (!traceReconnects || downNanos < 0
+        || sampler != null && !sampler.sample("reconnect")) {
+      return;
+    }
+    long nowMicros = System.currentTimeMillis() * 1000;
+    Span span = builder("reconnect")
+        .ignoreActiveSpan()
+        .withStartTimestamp(nowMicros - downNanos / 1000)
+        .withTag("reconnectCount", reconnectCount)
+        .start();
+    tagPeer(span, address);
+    span.finish(nowMicros);
+  }
+
+  OperationListener getOperationListener() {
+    return operationListener;
+  }
+
+  /**
+   * Finishes the span directly, or hands it to the span finishing queue if configured
+   */
+  void finishSpan(Span span, long finishMicros) {
+    if (spanFinisher == null) {
+      span.finish();
+    } else {
+      spanFinisher.finish(span, finishMicros);
+    }
+  }
+
+  void shutdown() {
+    if (spanFinisher != null) {
+      spanFinisher.shutdown();
+    }
+  }
+
+  MemcachedClientMetrics getMetrics() {
+    return metrics;
   }
 
   public Span buildSpan(String operationName) {
-    if (traceWithActiveSpanOnly && tracer.activeSpan() == null) {
+    if (!isTraced(operationName)) {
       return NoopSpan.INSTANCE;
     } else {
       return builder(operationName).start();
@@ -45,11 +245,54 @@ class TracingHelper {
   }
 
   public Span buildSpan(String operationName, String key) {
-    if (traceWithActiveSpanOnly && tracer.activeSpan() == null) {
+    return buildSpan(operationName, key, null);
+  }
+
+  private Span buildSpan(String operationName, String key, SpanContext followsFrom) {
+    if (!isTraced(operationName)) {
       return NoopSpan.INSTANCE;
     } else {
-      return builder(operationName).withTag("key", nullable(key)).start();
+      SpanBuilder builder = builder(operationName).withTag("key", nullable(key));
+      if (followsFrom != null) {
+        builder.addReference(References.FOLLOWS_FROM, followsFrom);
+      }
+      return builder.start();
+    }
+  }
+
+  /**
+   * @return the span of the part of a call sent to one node, or a NoopSpan if the call is not
+   * traced
+   */
+  Span buildChildSpan(String operationName, Span parent, SocketAddress node) {
+    if (parent == NoopSpan.INSTANCE) {
+      return NoopSpan.INSTANCE;
+    }
+    Span span = builder(operationName).asChildOf(parent).start();
+    tagPeer(span, node);
+    return span;
+  }
+
+  /**
+   * @param startEpochMicros start of the span, which is built once the node that served the part
+   * of the call is known
+   */
+  Span buildChildSpan(String operationName, Span parent, SocketAddress node,
+      long startEpochMicros) {
+    if (parent == NoopSpan.INSTANCE) {
+      return NoopSpan.INSTANCE;
+    }
+    Span span = builder(operationName).asChildOf(parent).withStartTimestamp(startEpochMicros)
+        .start();
+    tagPeer(span, node);
+    return span;
+  }
+
+  private boolean isTraced(String operationName) {
+    if (isNested() || traceWithActiveSpanOnly && tracer.activeSpan() == null) {
+      return false;
     }
+    return sampler == null || sampler.sample(operationName);
   }
 
   private SpanBuilder builder(String operationName) {
@@ -59,6 +302,56 @@ class TracingHelper {
         .withTag(Tags.DB_TYPE.getKey(), DB_TYPE);
   }
 
+  /**
+   * Tags the stored value according to the configured {@link ValueTagging}. Nothing is computed
+   * for spans that are not recorded.
+   */
+  void tagValue(Span span, String tagName, Object value) {
+    if (valueTagging == ValueTagging.OFF || span == NoopSpan.INSTANCE) {
+      return;
+    }
+    if (value == null) {
+      span.setTag(tagName, "null");
+      return;
+    }
+    switch (valueTagging) {
+      case TRUNCATED:
+        if (value instanceof CharSequence) {
+          span.setTag(tagName, truncate((CharSequence) value, valueMaxLength));
+          break;
+        } else if (hasShortString(value)) {
+          span.setTag(tagName, truncate(value.toString(), valueMaxLength));
+          break;
+        }
+        // other values may build a string of any size, they are tagged as with LENGTH
+        // fall through
+      case LENGTH:
+        if (value instanceof byte[]) {
+          span.setTag(tagName + ".length", ((byte[]) value).length);
+          break;
+        } else if (value instanceof CharSequence) {
+          span.setTag(tagName + ".length", ((CharSequence) value).length());
+          break;
+        }
+        // fall through
+      default:
+        span.setTag(tagName + ".type", value.getClass().getName());
+    }
+  }
+
+  static String truncate(CharSequence value, int maxLength) {
+    return value.length() > maxLength
+        ? value.subSequence(0, maxLength).toString() : value.toString();
+  }
+
+  /**
+   * @return <code>true</code> for values whose {@code toString()} is bounded by their type
+   */
+  private static boolean hasShortString(Object value) {
+    return value instanceof Number || value instanceof Boolean || value instanceof Character
+        || value instanceof Enum;
+  }
+
   static void onError(Throwable throwable, Span span) {
     Tags.ERROR.set(span, Boolean.TRUE);
 
@@ -82,35 +375,174 @@ class TracingHelper {
     return object == null ? "null" : object.getClass().getName();
   }
 
-  public static String toString(Collection<?> collection) {
-    if (collection == null) {
-      return "null";
+  /**
+   * Tags the number of keys, a sample of at most {@code keysSampleSize} keys and a fingerprint of
+   * the key set. Only the sampled keys are converted to a string.
+   */
+  void tagKeys(TracedOperation operation, Collection<String> keys) {
+    if (operation.isNested()) {
+      return;
+    }
+    Span span = operation.getSpan();
+    if (span == NoopSpan.INSTANCE) {
+      return;
+    }
+    if (keys == null) {
+      span.setTag("keys", "null");
+      return;
     }
-    boolean first = true;
+    span.setTag("keys.count", keys.size());
+    if (keysSampleSize > 0) {
+      span.setTag("keys", sample(keys, keysSampleSize));
+    }
+    span.setTag("keys.fingerprint", Long.toHexString(fingerprint(keys)));
+  }
+
+  void tagKeys(TracedOperation operation, String[] keys) {
+    tagKeys(operation, keys == null ? null : Arrays.asList(keys));
+  }
+
+  /**
+   * Counts each key of a bulk read for hot key tracking.
+   */
+  void recordReads(TracedOperation operation, Collection<String> keys) {
+    if (!operation.isNested() && keys != null) {
+      metrics.recordReads(keys);
+    }
+  }
+
+  void recordReads(TracedOperation operation, String[] keys) {
+    recordReads(operation, keys == null ? null : Arrays.asList(keys));
+  }
+
+  /**
+   * Counts each key of a bulk write for hot key tracking.
+   */
+  void recordWrites(TracedOperation operation, Collection<String> keys) {
+    if (!operation.isNested() && keys != null) {
+      metrics.recordWrites(keys);
+    }
+  }
+
+  static String sample(Iterable<?> elements, int limit) {
     StringBuilder builder = new StringBuilder();
-    for (Object element : collection) {
-      if (first) {
-        builder.append(nullable(element));
-        first = false;
-      } else {
-        builder.append(", ").append(nullable(element));
+    int count = 0;
+    for (Object element : elements) {
+      if (count == limit) {
+        builder.append(", ...");
+        break;
+      }
+      if (count > 0) {
+        builder.append(", ");
       }
+      builder.append(nullable(element));
+      count++;
     }
-
     return builder.toString();
   }
 
-  public Scope activate(Span span) {
-    return tracer.scopeManager().activate(span);
+  /**
+   * Order independent fingerprint of the keys, based on their cached hash codes.
+   */
+  static long fingerprint(Iterable<String> keys) {
+    long fingerprint = 0;
+    for (String key : keys) {
+      fingerprint += mix(key == null ? 0 : key.hashCode());
+    }
+    return fingerprint;
+  }
+
+  private static long mix(long value) {
+    value ^= value >>> 33;
+    value *= 0xff51afd7ed558ccdL;
+    value ^= value >>> 33;
+    value *= 0xc4ceb9fe1a85ec53L;
+    value ^= value >>> 33;
+    return value;
+  }
+
+  /**
+   * Activates the operation's span and marks the current thread as being inside the operation until
+   * the returned scope is closed. Calls that MemcachedClient makes to its own overridden methods (e.g.
+   * <code>get</code> delegating to <code>asyncGet</code>) are then not traced a second time.
+   */
+  public Scope activate(TracedOperation operation) {
+    CallDepth callDepth = this.callDepth.get();
+    if (callDepth.depth++ > 0) {
+      return callDepth;
+    }
+    callDepth.current = operation;
+    Span span = operation.getSpan();
+    if (span == NoopSpan.INSTANCE) {
+      return callDepth;
+    }
+    return new ActiveScope(callDepth, tracer.scopeManager().activate(span));
+  }
+
+  /**
+   * @return the earlier of the active deadline and the deadline carried in the baggage of the
+   * active span, or <code>null</code> if there is none
+   */
+  Deadline deadline() {
+    Deadline deadline = Deadline.active();
+    if (deadlineBaggageItem == null) {
+      return deadline;
+    }
+    Span active = tracer.activeSpan();
+    String epochMillis = active == null ? null : active.getBaggageItem(deadlineBaggageItem);
+    if (epochMillis == null) {
+      return deadline;
+    }
+    try {
+      return Deadline.atEpochMillis(Long.parseLong(epochMillis)).min(deadline);
+    } catch (NumberFormatException e) {
+      return deadline;
+    }
+  }
+
+  boolean isNested() {
+    return callDepth.get().depth > 0;
   }
 
-  public static void setStatusAndFinish(Span span, OperationStatus status) {
+  /**
+   * Per thread depth of traced calls and the outermost one, doubling as the scope of calls that
+   * activate nothing.
+   */
+  private static class CallDepth implements Scope {
+
+    private int depth;
+    private TracedOperation current;
+
+    @Override
+    public void close() {
+      if (--depth == 0) {
+        current = null;
+      }
+    }
+  }
+
+  private static class ActiveScope implements Scope {
+
+    private final CallDepth callDepth;
+    private final Scope scope;
+
+    ActiveScope(CallDepth callDepth, Scope scope) {
+      this.callDepth = callDepth;
+      this.scope = scope;
+    }
+
+    @Override
+    public void close() {
+      callDepth.close();
+      scope.close();
+    }
+  }
+
+  static void setStatus(Span span, OperationStatus status) {
     span.setTag("status.code", nullable(status.getStatusCode()));
     if (status.getMessage() != null) {
       span.setTag("status.message", status.getMessage());
     }
     span.setTag("status.success", status.isSuccess());
-
-    span.finish();
   }
 }
@@ -15,48 +15,86 @@ package io.opentracing.contrib.spymemcached;
 
 import static io.opentracing.contrib.spymemcached.TracingHelper.nullable;
 import static io.opentracing.contrib.spymemcached.TracingHelper.nullableClass;
-import static io.opentracing.contrib.spymemcached.TracingHelper.onError;
 
 import io.opentracing.Scope;
 import io.opentracing.Span;
+import io.opentracing.SpanContext;
 import io.opentracing.Tracer;
+import io.opentracing.contrib.spymemcached.ReadCoalescer.Flight;
+import io.opentracing.noop.NoopSpan;
 import io.opentracing.util.GlobalTracer;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import net.spy.memcached.BroadcastOpFactory;
 import net.spy.memcached.CASResponse;
 import net.spy.memcached.CASValue;
+import net.spy.memcached.CachedData;
 import net.spy.memcached.ConnectionFactory;
 import net.spy.memcached.ConnectionObserver;
+import net.spy.memcached.DefaultConnectionFactory;
 import net.spy.memcached.MemcachedClient;
 import net.spy.memcached.MemcachedConnection;
 import net.spy.memcached.MemcachedNode;
 import net.spy.memcached.NodeLocator;
+import net.spy.memcached.OperationTimeoutException;
 import net.spy.memcached.compat.log.Logger;
 import net.spy.memcached.internal.BulkFuture;
+import net.spy.memcached.internal.GetCompletionListener;
 import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.internal.OperationCompletionListener;
 import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.internal.SingleElementInfiniteIterator;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.StoreType;
+import net.spy.memcached.protocol.binary.BinaryOperationFactory;
 import net.spy.memcached.transcoders.TranscodeService;
 import net.spy.memcached.transcoders.Transcoder;
+import net.spy.memcached.util.StringUtils;
 
 public class TracingMemcachedClient extends MemcachedClient {
 
   private final TracingHelper helper;
+  private final StatsPoller statsPoller;
+  private final QueueDepthSampler queueDepthSampler;
+  private final NearCache nearCache;
+  private final NearCache negativeCache;
+  private final ReadCoalescer coalescer;
+  private final GetBatcher batcher;
+  /**
+   * Bulk get sent without tracing it, by the batcher and for each node of a traced bulk get. It
+   * calls the iterator variant, which the other variants of spymemcached delegate to through the
+   * traced overrides of this class.
+   */
+  private final GetBatcher.BulkGet untracedBulkGet = new GetBatcher.BulkGet() {
+    @Override
+    public <T> BulkFuture<Map<String, T>> asyncGetBulk(Collection<String> keys,
+        Iterator<Transcoder<T>> transcoders) {
+      return TracingMemcachedClient.super.asyncGetBulk(keys.iterator(), transcoders);
+    }
+  };
+  private final CircuitBreaker circuitBreaker;
+  private final CircuitBreakerWritePolicy writePolicy;
 
   public TracingMemcachedClient(Tracer tracer, boolean traceWithActiveSpanOnly,
       InetSocketAddress... ia) throws IOException {
-    super(ia);
-    helper = new TracingHelper(tracer, traceWithActiveSpanOnly);
+    this(configuration(tracer, traceWithActiveSpanOnly), ia);
   }
 
   /**
@@ -64,13 +102,17 @@ public class TracingMemcachedClient extends MemcachedClient {
    */
   public TracingMemcachedClient(boolean traceWithActiveSpanOnly,
       InetSocketAddress... ia) throws IOException {
-    this(GlobalTracer.get(), traceWithActiveSpanOnly);
+    this(GlobalTracer.get(), traceWithActiveSpanOnly, ia);
+  }
+
+  public TracingMemcachedClient(TracingConfiguration configuration, InetSocketAddress... ia)
+      throws IOException {
+    this(new DefaultConnectionFactory(), Arrays.asList(ia), configuration);
   }
 
   public TracingMemcachedClient(List<InetSocketAddress> addrs, Tracer tracer,
       boolean traceWithActiveSpanOnly) throws IOException {
-    super(addrs);
-    helper = new TracingHelper(tracer, traceWithActiveSpanOnly);
+    this(addrs, configuration(tracer, traceWithActiveSpanOnly));
   }
 
   /**
@@ -81,11 +123,15 @@ public class TracingMemcachedClient extends MemcachedClient {
     this(addrs, GlobalTracer.get(), traceWithActiveSpanOnly);
   }
 
+  public TracingMemcachedClient(List<InetSocketAddress> addrs,
+      TracingConfiguration configuration) throws IOException {
+    this(new DefaultConnectionFactory(), addrs, configuration);
+  }
+
   public TracingMemcachedClient(ConnectionFactory cf, List<InetSocketAddress> addrs, Tracer tracer,
       boolean traceWithActiveSpanOnly)
       throws IOException {
-    super(cf, addrs);
-    helper = new TracingHelper(tracer, traceWithActiveSpanOnly);
+    this(cf, addrs, configuration(tracer, traceWithActiveSpanOnly));
   }
 
   /**
@@ -97,6 +143,42 @@ public class TracingMemcachedClient extends MemcachedClient {
     this(cf, addrs, GlobalTracer.get(), traceWithActiveSpanOnly);
   }
 
+  public TracingMemcachedClient(ConnectionFactory cf, List<InetSocketAddress> addrs,
+      TracingConfiguration configuration) throws IOException {
+    super(cf, addrs);
+    helper = new TracingHelper(configuration, mconn, executorService);
+    statsPoller = StatsPoller.start(this, opFact, helper, configuration);
+    queueDepthSampler = QueueDepthSampler.start(helper.getMetrics(), configuration);
+    nearCache = NearCache.create(configuration);
+    negativeCache = NearCache.createNegative(configuration);
+    coalescer = ReadCoalescer.create(configuration, operationTimeout, executorService);
+    batcher = batcher(configuration);
+    circuitBreaker = helper.getMetrics().getCircuitBreaker();
+    writePolicy = configuration.getCircuitBreakerWritePolicy();
+  }
+
+  /**
+   * @return the batcher of single key gets, which sends its bulk gets without tracing them
+   */
+  private GetBatcher batcher(TracingConfiguration configuration) {
+    return GetBatcher.create(configuration, untracedBulkGet, operationTimeout,
+        opFact instanceof BinaryOperationFactory, executorService);
+  }
+
+  private static TracingConfiguration configuration(Tracer tracer,
+      boolean traceWithActiveSpanOnly) {
+    return new TracingConfiguration.Builder(tracer)
+        .traceWithActiveSpanOnly(traceWithActiveSpanOnly)
+        .build();
+  }
+
+  /**
+   * @return latencies of all operations, including the ones that were not traced
+   */
+  public MemcachedClientMetrics getMetrics() {
+    return helper.getMetrics();
+  }
+
   @Override
   public Collection<SocketAddress> getAvailableServers() {
     return super.getAvailableServers();
@@ -129,122 +211,184 @@ public class TracingMemcachedClient extends MemcachedClient {
 
   @Override
   public <T> OperationFuture<Boolean> touch(String key, int expiration) {
-    Span span = helper.buildSpan("touch", key);
+    TracedOperation operation = helper.start("touch", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("expiration", expiration);
-    try (Scope ignore = helper.activate(span)) {
-      return super.touch(key, expiration).addListener(new TracingOperationCompletionListener(span));
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(invalidateOnCompletion(super.touch(key, expiration), key));
     }
   }
 
   @Override
   public <T> OperationFuture<Boolean> touch(String key, int expiration, Transcoder<T> transcoder) {
-    Span span = helper.buildSpan("touch", key);
+    TracedOperation operation = helper.start("touch", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("expiration", expiration);
     span.setTag("transcoder", nullableClass(transcoder));
-    try (Scope ignore = helper.activate(span)) {
-      return super.touch(key, expiration, transcoder)
-          .addListener(new TracingOperationCompletionListener(span));
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(
+          invalidateOnCompletion(super.touch(key, expiration, transcoder), key));
     }
   }
 
   @Override
   public OperationFuture<Boolean> append(long cas, String key, Object value) {
-    Span span = helper.buildSpan("append", key);
+    TracedOperation operation = helper.start("append", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("cas", cas);
-    span.setTag("value", nullable(value));
-    try (Scope ignore = helper.activate(span)) {
-      return super.append(cas, key, value)
-          .addListener(new TracingOperationCompletionListener(span));
+    helper.tagValue(span, "value", value);
+    Transcoder<Object> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(
+          invalidateOnCompletion(super.append(cas, key, value, wrapped), key));
     }
   }
 
   @Override
   public OperationFuture<Boolean> append(String key, Object value) {
-    Span span = helper.buildSpan("append", key);
-    span.setTag("value", nullable(value));
-    try (Scope ignore = helper.activate(span)) {
-      return super.append(key, value).addListener(new TracingOperationCompletionListener(span));
+    TracedOperation operation = helper.start("append", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
+    helper.tagValue(span, "value", value);
+    Transcoder<Object> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(invalidateOnCompletion(super.append(key, value, wrapped), key));
     }
   }
 
   @Override
   public <T> OperationFuture<Boolean> append(long cas, String key, T value,
       Transcoder<T> transcoder) {
-    Span span = helper.buildSpan("append", key);
+    TracedOperation operation = helper.start("append", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("cas", cas);
-    span.setTag("value", nullable(value));
+    helper.tagValue(span, "value", value);
     span.setTag("transcoder", nullableClass(transcoder));
-    try (Scope ignore = helper.activate(span)) {
-      return super.append(cas, key, value, transcoder)
-          .addListener(new TracingOperationCompletionListener(span));
+    Transcoder<T> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(
+          invalidateOnCompletion(super.append(cas, key, value, wrapped), key));
     }
   }
 
   @Override
   public <T> OperationFuture<Boolean> append(String key, T value, Transcoder<T> transcoder) {
-    Span span = helper.buildSpan("append", key);
-    span.setTag("value", nullable(value));
+    TracedOperation operation = helper.start("append", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
+    helper.tagValue(span, "value", value);
     span.setTag("transcoder", nullableClass(transcoder));
-    try (Scope ignore = helper.activate(span)) {
-      return super.append(key, value, transcoder)
-          .addListener(new TracingOperationCompletionListener(span));
+    Transcoder<T> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(invalidateOnCompletion(super.append(key, value, wrapped), key));
     }
   }
 
   @Override
   public OperationFuture<Boolean> prepend(long cas, String key, Object value) {
-    Span span = helper.buildSpan("prepend", key);
+    TracedOperation operation = helper.start("prepend", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("cas", cas);
-    span.setTag("value", nullable(value));
-    try (Scope ignore = helper.activate(span)) {
-      return super.prepend(cas, key, value)
-          .addListener(new TracingOperationCompletionListener(span));
+    helper.tagValue(span, "value", value);
+    Transcoder<Object> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(
+          invalidateOnCompletion(super.prepend(cas, key, value, wrapped), key));
     }
   }
 
   @Override
   public OperationFuture<Boolean> prepend(String key, Object value) {
-    Span span = helper.buildSpan("prepend", key);
-    span.setTag("value", nullable(value));
-    try (Scope ignore = helper.activate(span)) {
-      return super.prepend(key, value).addListener(new TracingOperationCompletionListener(span));
+    TracedOperation operation = helper.start("prepend", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
+    helper.tagValue(span, "value", value);
+    Transcoder<Object> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(invalidateOnCompletion(super.prepend(key, value, wrapped), key));
     }
   }
 
   @Override
   public <T> OperationFuture<Boolean> prepend(long cas, String key, T value,
       Transcoder<T> transcoder) {
-    Span span = helper.buildSpan("prepend", key);
+    TracedOperation operation = helper.start("prepend", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("cas", cas);
-    span.setTag("value", nullable(value));
+    helper.tagValue(span, "value", value);
     span.setTag("transcoder", nullableClass(transcoder));
-    try (Scope ignore = helper.activate(span)) {
-      return super.prepend(cas, key, value, transcoder)
-          .addListener(new TracingOperationCompletionListener(span));
+    Transcoder<T> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(
+          invalidateOnCompletion(super.prepend(cas, key, value, wrapped), key));
     }
   }
 
   @Override
   public <T> OperationFuture<Boolean> prepend(String key, T value, Transcoder<T> transcoder) {
-    Span span = helper.buildSpan("prepend", key);
-    span.setTag("value", nullable(value));
+    TracedOperation operation = helper.start("prepend", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
+    helper.tagValue(span, "value", value);
     span.setTag("transcoder", nullableClass(transcoder));
-    try (Scope ignore = helper.activate(span)) {
-      return super.prepend(key, value, transcoder)
-          .addListener(new TracingOperationCompletionListener(span));
+    Transcoder<T> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(invalidateOnCompletion(super.prepend(key, value, wrapped), key));
     }
   }
 
   @Override
   public <T> OperationFuture<CASResponse> asyncCAS(String key, long casId, T value,
       Transcoder<T> transcoder) {
-    Span span = helper.buildSpan("asyncCAS", key);
+    TracedOperation operation = helper.start("asyncCAS", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key, CASResponse.NOT_FOUND);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("casId", casId);
-    span.setTag("value", nullable(value));
+    helper.tagValue(span, "value", value);
     span.setTag("transcoder", nullableClass(transcoder));
-    try (Scope ignore = helper.activate(span)) {
-      return super.asyncCAS(key, casId, value, transcoder)
-          .addListener(new TracingOperationCompletionListener(span));
+    Transcoder<T> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(
+          invalidateOnCompletion(super.asyncCAS(key, casId, value, wrapped), key));
     }
   }
 
@@ -252,942 +396,2028 @@ public class TracingMemcachedClient extends MemcachedClient {
   public <T> OperationFuture<CASResponse> asyncCAS(String key, long casId, int expiration, T
       value,
       Transcoder<T> transcoder) {
-    Span span = helper.buildSpan("asyncCAS", key);
+    TracedOperation operation = helper.start("asyncCAS", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key, CASResponse.NOT_FOUND);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("casId", casId);
-    span.setTag("value", nullable(value));
+    helper.tagValue(span, "value", value);
     span.setTag("transcoder", nullableClass(transcoder));
     span.setTag("expiration", expiration);
-    try (Scope ignore = helper.activate(span)) {
-      return super.asyncCAS(key, casId, expiration, value, transcoder)
-          .addListener(new TracingOperationCompletionListener(span));
+    Transcoder<T> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(
+          invalidateOnCompletion(super.asyncCAS(key, casId, expiration, value, wrapped), key));
     }
   }
 
   @Override
   public OperationFuture<CASResponse> asyncCAS(String key, long casId, Object value) {
-    Span span = helper.buildSpan("asyncCAS", key);
+    TracedOperation operation = helper.start("asyncCAS", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key, CASResponse.NOT_FOUND);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("casId", casId);
-    span.setTag("value", nullable(value));
-    try (Scope ignore = helper.activate(span)) {
-      return super.asyncCAS(key, casId, value)
-          .addListener(new TracingOperationCompletionListener(span));
+    helper.tagValue(span, "value", value);
+    Transcoder<Object> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(
+          invalidateOnCompletion(super.asyncCAS(key, casId, value, wrapped), key));
     }
   }
 
   @Override
   public OperationFuture<CASResponse> asyncCAS(String key, long casId, int expiration,
       Object value) {
-    Span span = helper.buildSpan("asyncCAS", key);
+    TracedOperation operation = helper.start("asyncCAS", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key, CASResponse.NOT_FOUND);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("casId", casId);
-    span.setTag("value", nullable(value));
+    helper.tagValue(span, "value", value);
     span.setTag("expiration", expiration);
-    try (Scope ignore = helper.activate(span)) {
-      return super.asyncCAS(key, casId, expiration, value)
-          .addListener(new TracingOperationCompletionListener(span));
+    Transcoder<Object> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(
+          invalidateOnCompletion(super.asyncCAS(key, casId, expiration, value, wrapped), key));
     }
   }
 
   @Override
   public <T> CASResponse cas(String key, long casId, T value, Transcoder<T> transcoder) {
-    Span span = helper.buildSpan("cas", key);
+    TracedOperation operation = helper.start("cas", key);
+    if (isDropped(operation)) {
+      operation.finish(DroppedWriteFuture.STATUS);
+      return CASResponse.NOT_FOUND;
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("casId", casId);
-    span.setTag("value", nullable(value));
+    helper.tagValue(span, "value", value);
     span.setTag("transcoder", nullableClass(transcoder));
-    try (Scope ignore = helper.activate(span)) {
-      return super.cas(key, casId, value, transcoder);
+    Transcoder<T> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return super.cas(key, casId, value, wrapped);
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      invalidateWritten(operation, key);
+      operation.finish();
     }
   }
 
   @Override
   public <T> CASResponse cas(String key, long casId, int expiration, T value,
       Transcoder<T> transcoder) {
-    Span span = helper.buildSpan("cas", key);
+    TracedOperation operation = helper.start("cas", key);
+    if (isDropped(operation)) {
+      operation.finish(DroppedWriteFuture.STATUS);
+      return CASResponse.NOT_FOUND;
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("casId", casId);
-    span.setTag("value", nullable(value));
+    helper.tagValue(span, "value", value);
     span.setTag("expiration", expiration);
     span.setTag("transcoder", nullableClass(transcoder));
-    try (Scope ignore = helper.activate(span)) {
-      return super.cas(key, casId, expiration, value, transcoder);
+    Transcoder<T> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return super.cas(key, casId, expiration, value, wrapped);
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      invalidateWritten(operation, key);
+      operation.finish();
     }
   }
 
   @Override
   public CASResponse cas(String key, long casId, Object value) {
-    Span span = helper.buildSpan("cas", key);
+    TracedOperation operation = helper.start("cas", key);
+    if (isDropped(operation)) {
+      operation.finish(DroppedWriteFuture.STATUS);
+      return CASResponse.NOT_FOUND;
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("casId", casId);
-    span.setTag("value", nullable(value));
-    try (Scope ignore = helper.activate(span)) {
-      return super.cas(key, casId, value);
+    helper.tagValue(span, "value", value);
+    Transcoder<Object> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return super.cas(key, casId, value, wrapped);
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      invalidateWritten(operation, key);
+      operation.finish();
     }
   }
 
   @Override
   public CASResponse cas(String key, long casId, int expiration, Object value) {
-    Span span = helper.buildSpan("cas", key);
+    TracedOperation operation = helper.start("cas", key);
+    if (isDropped(operation)) {
+      operation.finish(DroppedWriteFuture.STATUS);
+      return CASResponse.NOT_FOUND;
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("casId", casId);
-    span.setTag("value", nullable(value));
+    helper.tagValue(span, "value", value);
     span.setTag("expiration", expiration);
-    try (Scope ignore = helper.activate(span)) {
-      return super.cas(key, casId, expiration, value);
+    Transcoder<Object> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return super.cas(key, casId, expiration, value, wrapped);
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      invalidateWritten(operation, key);
+      operation.finish();
     }
   }
 
   @Override
   public <T> OperationFuture<Boolean> add(String key, int expiration, T object,
       Transcoder<T> transcoder) {
-    Span span = helper.buildSpan("add", key);
-    span.setTag("object", nullable(object));
+    TracedOperation operation = helper.start("add", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key);
+    }
+    long stamp = invalidate(operation, key);
+    Span span = operation.getSpan();
+    helper.tagValue(span, "object", object);
     span.setTag("expiration", expiration);
     span.setTag("transcoder", nullableClass(transcoder));
-    try (Scope ignore = helper.activate(span)) {
-      return super.add(key, expiration, object, transcoder)
-          .addListener(new TracingOperationCompletionListener(span));
+    Transcoder<T> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(writeThrough(super.add(key, expiration, object, wrapped),
+          key, expiration, object, transcoder, stamp));
     }
   }
 
   @Override
   public OperationFuture<Boolean> add(String key, int expiration, Object object) {
-    Span span = helper.buildSpan("add", key);
-    span.setTag("object", nullable(object));
+    TracedOperation operation = helper.start("add", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key);
+    }
+    long stamp = invalidate(operation, key);
+    Span span = operation.getSpan();
+    helper.tagValue(span, "object", object);
     span.setTag("expiration", expiration);
-    try (Scope ignore = helper.activate(span)) {
-      return super.add(key, expiration, object)
-          .addListener(new TracingOperationCompletionListener(span));
+    Transcoder<Object> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(writeThrough(super.add(key, expiration, object, wrapped),
+          key, expiration, object, transcoder, stamp));
     }
   }
 
   @Override
   public <T> OperationFuture<Boolean> set(String key, int expiration, T object,
       Transcoder<T> transcoder) {
-    Span span = helper.buildSpan("set", key);
-    span.setTag("object", nullable(object));
+    TracedOperation operation = helper.start("set", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key);
+    }
+    long stamp = invalidate(operation, key);
+    Span span = operation.getSpan();
+    helper.tagValue(span, "object", object);
     span.setTag("expiration", expiration);
     span.setTag("transcoder", nullableClass(transcoder));
-    try (Scope ignore = helper.activate(span)) {
-      return super.set(key, expiration, object, transcoder)
-          .addListener(new TracingOperationCompletionListener(span));
+    Transcoder<T> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(writeThrough(super.set(key, expiration, object, wrapped),
+          key, expiration, object, transcoder, stamp));
     }
   }
 
   @Override
   public OperationFuture<Boolean> set(String key, int expiration, Object object) {
-    Span span = helper.buildSpan("set", key);
+    TracedOperation operation = helper.start("set", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key);
+    }
+    long stamp = invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("expiration", expiration);
-    span.setTag("object", nullable(object));
-    try (Scope ignore = helper.activate(span)) {
-      return super.set(key, expiration, object)
-          .addListener(new TracingOperationCompletionListener(span));
+    helper.tagValue(span, "object", object);
+    Transcoder<Object> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(writeThrough(super.set(key, expiration, object, wrapped),
+          key, expiration, object, transcoder, stamp));
     }
   }
 
   @Override
   public <T> OperationFuture<Boolean> replace(String key, int expiration, T object,
       Transcoder<T> transcoder) {
-    Span span = helper.buildSpan("replace", key);
-    span.setTag("object", nullable(object));
+    TracedOperation operation = helper.start("replace", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key);
+    }
+    long stamp = invalidate(operation, key);
+    Span span = operation.getSpan();
+    helper.tagValue(span, "object", object);
     span.setTag("expiration", expiration);
     span.setTag("transcoder", nullableClass(transcoder));
-    try (Scope ignore = helper.activate(span)) {
-      return super.replace(key, expiration, object, transcoder)
-          .addListener(new TracingOperationCompletionListener(span));
+    Transcoder<T> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(writeThrough(super.replace(key, expiration, object, wrapped),
+          key, expiration, object, transcoder, stamp));
     }
   }
 
   @Override
   public OperationFuture<Boolean> replace(String key, int expiration, Object object) {
-    Span span = helper.buildSpan("replace", key);
-    span.setTag("object", nullable(object));
+    TracedOperation operation = helper.start("replace", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key);
+    }
+    long stamp = invalidate(operation, key);
+    Span span = operation.getSpan();
+    helper.tagValue(span, "object", object);
     span.setTag("expiration", expiration);
-    try (Scope ignore = helper.activate(span)) {
-      return super.replace(key, expiration, object)
-          .addListener(new TracingOperationCompletionListener(span));
+    Transcoder<Object> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(writeThrough(super.replace(key, expiration, object, wrapped),
+          key, expiration, object, transcoder, stamp));
     }
   }
 
+  /**
+   * Sets all values with one span for the call and a child span per node. The keys of a node are
+   * queued together, so that spymemcached sends them as quiet sets when the binary protocol is
+   * used and its connection factory optimizes operations.
+   *
+   * @return the future of the result of every key
+   */
+  public <T> BulkWriteFuture setBulk(final Map<String, T> values, final int expiration,
+      Transcoder<T> transcoder) {
+    TracedOperation operation = helper.start("setBulk");
+    Span span = operation.getSpan();
+    helper.tagKeys(operation, values.keySet());
+    helper.recordWrites(operation, values.keySet());
+    span.setTag("expiration", expiration);
+    span.setTag("transcoder", nullableClass(transcoder));
+    final Transcoder<T> wrapped = helper.transcoder(operation, transcoder);
+    return bulkWrite(operation, "setBulk", values.keySet(), new KeyWriter() {
+      @Override
+      public Operation write(String key, BulkWrite.KeyCallback callback) {
+        CachedData data = wrapped.encode(values.get(key));
+        return opFact.store(StoreType.set, key, data.getFlags(), expiration, data.getData(),
+            callback);
+      }
+    });
+  }
+
+  @SuppressWarnings("unchecked")
+  public BulkWriteFuture setBulk(Map<String, ?> values, int expiration) {
+    return setBulk((Map<String, Object>) values, expiration, transcoder);
+  }
+
+  /**
+   * Deletes all keys with one span for the call and a child span per node
+   *
+   * @return the future of the result of every key
+   */
+  public BulkWriteFuture deleteBulk(Collection<String> keys) {
+    TracedOperation operation = helper.start("deleteBulk");
+    helper.tagKeys(operation, keys);
+    helper.recordWrites(operation, keys);
+    return bulkWrite(operation, "deleteBulk", keys, new KeyWriter() {
+      @Override
+      public Operation write(String key, BulkWrite.KeyCallback callback) {
+        return opFact.delete(key, callback);
+      }
+    });
+  }
+
+  /**
+   * Touches all keys with one span for the call and a child span per node
+   *
+   * @return the future of the result of every key
+   */
+  public BulkWriteFuture touchBulk(Collection<String> keys, final int expiration) {
+    TracedOperation operation = helper.start("touchBulk");
+    helper.tagKeys(operation, keys);
+    helper.recordWrites(operation, keys);
+    operation.getSpan().setTag("expiration", expiration);
+    return bulkWrite(operation, "touchBulk", keys, new KeyWriter() {
+      @Override
+      public Operation write(String key, BulkWrite.KeyCallback callback) {
+        return opFact.touch(key, expiration, callback);
+      }
+    });
+  }
+
+  /**
+   * Creates the operation of every key, grouped by primary node, before queueing any of them, so
+   * that invalid keys and values fail the call without writing anything
+   */
+  private BulkWriteFuture bulkWrite(TracedOperation operation, String operationName,
+      Collection<String> keys, KeyWriter writer) {
+    BulkWrite write = new BulkWrite(helper, operation, operationName, keys.size(),
+        operationTimeout, executorService, bulkWriteListener(operation));
+    if (keys.isEmpty()) {
+      operation.finish();
+      return write.getFuture();
+    }
+    Map<MemcachedNode, List<String>> keysByNode = new LinkedHashMap<>();
+    Map<MemcachedNode, List<Operation>> operationsByNode = new HashMap<>();
+    Map<MemcachedNode, BulkWrite.NodeWrite> nodeWrites = new HashMap<>();
+    List<String> dropped = new ArrayList<>();
+    try (Scope ignore = helper.activate(operation)) {
+      for (String key : keys) {
+        StringUtils.validateKey(key, opFact instanceof BinaryOperationFactory);
+        MemcachedNode node = mconn.getLocator().getPrimary(key);
+        if (writePolicy == CircuitBreakerWritePolicy.DROP && circuitBreaker != null
+            && circuitBreaker.isOpen(node.getSocketAddress())) {
+          dropped.add(key);
+          continue;
+        }
+        List<String> nodeKeys = keysByNode.get(node);
+        if (nodeKeys == null) {
+          nodeKeys = new ArrayList<>();
+          keysByNode.put(node, nodeKeys);
+          operationsByNode.put(node, new ArrayList<Operation>());
+          nodeWrites.put(node, write.node(node.getSocketAddress()));
+        }
+        nodeKeys.add(key);
+        operationsByNode.get(node).add(writer.write(key, nodeWrites.get(node).callback(key)));
+      }
+      for (String key : keys) {
+        invalidate(operation, key);
+      }
+    } catch (RuntimeException e) {
+      operation.onError(e);
+      operation.finish();
+      throw e;
+    }
+    if (circuitBreaker != null) {
+      operation.getSpan().setTag("circuit.open.keys", dropped.size());
+    }
+    for (Map.Entry<MemcachedNode, List<String>> entry : keysByNode.entrySet()) {
+      nodeWrites.get(entry.getKey()).start();
+      List<String> nodeKeys = entry.getValue();
+      List<Operation> operations = operationsByNode.get(entry.getKey());
+      for (int i = 0; i < nodeKeys.size(); i++) {
+        write.getFuture().addOperation(operations.get(i));
+        mconn.enqueueOperation(nodeKeys.get(i), operations.get(i));
+      }
+    }
+    for (String key : dropped) {
+      write.skip(key, DroppedWriteFuture.STATUS);
+    }
+    return write.getFuture();
+  }
+
+  /**
+   * @return the listener invalidating the keys of a bulk write again once memcached applied them,
+   * <code>null</code> if they are not cached
+   */
+  private BulkWrite.KeyListener bulkWriteListener(TracedOperation operation) {
+    if (!invalidatesWrites() || operation.isNested()) {
+      return null;
+    }
+    return new BulkWrite.KeyListener() {
+      @Override
+      public void written(String key) {
+        invalidateWritten(key);
+      }
+    };
+  }
+
+  /**
+   * Creates the operation writing one key of a bulk write
+   */
+  private interface KeyWriter {
+
+    Operation write(String key, BulkWrite.KeyCallback callback);
+  }
+
   @Override
   public <T> GetFuture<T> asyncGet(String key, Transcoder<T> transcoder) {
-    Span span = helper.buildSpan("asyncGet", key);
+    Flight<T> flight = flight(key, transcoder);
+    TracedOperation operation = helper.start("asyncGet", key, leader(flight));
+    Span span = operation.getSpan();
     span.setTag("transcoder", nullableClass(transcoder));
-    try (Scope ignore = helper.activate(span)) {
-      return super.asyncGet(key, transcoder)
-          .addListener(new TracingGetCompletionListener(span));
+    T cached = getCached(operation, key, transcoder);
+    if (cached != null || isKnownMiss(operation, key) || isShortCircuited(operation)) {
+      return new NearCacheGetFuture<>(key, cached, executorService);
+    }
+    long missStamp = missStamp(operation, key);
+    Transcoder<T> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(rememberMiss(key, missStamp, isIntercepted(operation)
+          ? asyncGet(operation, key, transcoder, wrapped, flight)
+          : super.asyncGet(key, wrapped)));
     }
   }
 
   @Override
   public GetFuture<Object> asyncGet(String key) {
-    Span span = helper.buildSpan("asyncGet", key);
-    try (Scope ignore = helper.activate(span)) {
-      return super.asyncGet(key).addListener(new TracingGetCompletionListener(span));
+    Flight<Object> flight = flight(key, transcoder);
+    TracedOperation operation = helper.start("asyncGet", key, leader(flight));
+    Object cached = getCached(operation, key, transcoder);
+    if (cached != null || isKnownMiss(operation, key) || isShortCircuited(operation)) {
+      return new NearCacheGetFuture<>(key, cached, executorService);
+    }
+    long missStamp = missStamp(operation, key);
+    Transcoder<Object> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(rememberMiss(key, missStamp, isIntercepted(operation)
+          ? asyncGet(operation, key, transcoder, wrapped, flight)
+          : super.asyncGet(key, wrapped)));
     }
   }
 
   @Override
   public <T> OperationFuture<CASValue<T>> asyncGets(String key, Transcoder<T> transcoder) {
-    Span span = helper.buildSpan("asyncGets", key);
+    TracedOperation operation = helper.start("asyncGets", key);
+    if (isShortCircuited(operation)) {
+      return shortCircuited(key);
+    }
+    Span span = operation.getSpan();
     span.setTag("transcoder", nullableClass(transcoder));
-    try (Scope ignore = helper.activate(span)) {
-      return super.asyncGets(key, transcoder)
-          .addListener(new TracingOperationCompletionListener(span));
+    Transcoder<T> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(super.asyncGets(key, wrapped));
     }
   }
 
   @Override
   public OperationFuture<CASValue<Object>> asyncGets(String key) {
-    Span span = helper.buildSpan("asyncGets", key);
-    try (Scope ignore = helper.activate(span)) {
-      return super.asyncGets(key).addListener(new TracingOperationCompletionListener(span));
+    TracedOperation operation = helper.start("asyncGets", key);
+    if (isShortCircuited(operation)) {
+      return shortCircuited(key);
+    }
+    Transcoder<Object> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(super.asyncGets(key, wrapped));
     }
   }
 
   @Override
   public <T> CASValue<T> gets(String key, Transcoder<T> transcoder) {
-    Span span = helper.buildSpan("gets", key);
+    TracedOperation operation = helper.start("gets", key);
+    if (isShortCircuited(operation)) {
+      return null;
+    }
+    Span span = operation.getSpan();
     span.setTag("transcoder", nullableClass(transcoder));
-    try (Scope ignore = helper.activate(span)) {
-      return super.gets(key, transcoder);
+    Deadline deadline = deadline(operation);
+    Transcoder<T> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      checkDeadline(operation, deadline, "value");
+      CASValue<T> value = deadline == null ? super.gets(key, wrapped)
+          : await(operation, super.asyncGets(key, wrapped), deadline, "value");
+      operation.found(value == null ? 0 : 1);
+      return value;
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      operation.finish();
     }
   }
 
   @Override
   public <T> CASValue<T> getAndTouch(String key, int expiration, Transcoder<T> transcoder) {
-    Span span = helper.buildSpan("getAndTouch", key);
+    TracedOperation operation = helper.start("getAndTouch", key);
+    if (isShortCircuited(operation)) {
+      return null;
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("expiration", expiration);
     span.setTag("transcoder", nullableClass(transcoder));
-    try (Scope ignore = helper.activate(span)) {
-      return super.getAndTouch(key, expiration, transcoder);
+    Deadline deadline = deadline(operation);
+    Transcoder<T> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      checkDeadline(operation, deadline, "value");
+      CASValue<T> value = deadline == null ? super.getAndTouch(key, expiration, wrapped)
+          : await(operation, super.asyncGetAndTouch(key, expiration, wrapped), deadline,
+              "value");
+      operation.found(value == null ? 0 : 1);
+      return value;
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      invalidateWritten(operation, key);
+      operation.finish();
     }
   }
 
   @Override
   public CASValue<Object> getAndTouch(String key, int expiration) {
-    Span span = helper.buildSpan("getAndTouch", key);
+    TracedOperation operation = helper.start("getAndTouch", key);
+    if (isShortCircuited(operation)) {
+      return null;
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("expiration", expiration);
-    try (Scope ignore = helper.activate(span)) {
-      return super.getAndTouch(key, expiration);
+    Deadline deadline = deadline(operation);
+    Transcoder<Object> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      checkDeadline(operation, deadline, "value");
+      CASValue<Object> value = deadline == null ? super.getAndTouch(key, expiration, wrapped)
+          : await(operation, super.asyncGetAndTouch(key, expiration, wrapped), deadline,
+              "value");
+      operation.found(value == null ? 0 : 1);
+      return value;
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      invalidateWritten(operation, key);
+      operation.finish();
     }
   }
 
   @Override
   public CASValue<Object> gets(String key) {
-    Span span = helper.buildSpan("gets", key);
-    try (Scope ignore = helper.activate(span)) {
-      return super.gets(key);
+    TracedOperation operation = helper.start("gets", key);
+    if (isShortCircuited(operation)) {
+      return null;
+    }
+    Deadline deadline = deadline(operation);
+    Transcoder<Object> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      checkDeadline(operation, deadline, "value");
+      CASValue<Object> value = deadline == null ? super.gets(key, wrapped)
+          : await(operation, super.asyncGets(key, wrapped), deadline, "value");
+      operation.found(value == null ? 0 : 1);
+      return value;
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      operation.finish();
     }
   }
 
   @Override
   public <T> T get(String key, Transcoder<T> transcoder) {
-    Span span = helper.buildSpan("get", key);
+    Flight<T> flight = flight(key, transcoder);
+    TracedOperation operation = helper.start("get", key, leader(flight));
+    Span span = operation.getSpan();
     span.setTag("transcoder", nullableClass(transcoder));
-    try (Scope ignore = helper.activate(span)) {
-      return super.get(key, transcoder);
+    T cached = getCached(operation, key, transcoder);
+    if (cached != null || isKnownMiss(operation, key) || isShortCircuited(operation)) {
+      return cached;
+    }
+    long stamp = stamp(operation, key);
+    long missStamp = missStamp(operation, key);
+    Deadline deadline = deadline(operation);
+    Transcoder<T> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      checkDeadline(operation, deadline, "value");
+      T value = isIntercepted(operation) || deadline != null
+          ? await(operation, asyncGet(operation, key, transcoder, wrapped, flight), deadline,
+          "value")
+          : super.get(key, wrapped);
+      operation.found(value == null ? 0 : 1);
+      cache(key, value, transcoder, stamp);
+      cacheMiss(key, value, missStamp);
+      return value;
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      operation.finish();
     }
   }
 
   @Override
   public Object get(String key) {
-    Span span = helper.buildSpan("get", key);
-    try (Scope ignore = helper.activate(span)) {
-      return super.get(key);
+    Flight<Object> flight = flight(key, transcoder);
+    TracedOperation operation = helper.start("get", key, leader(flight));
+    Object cached = getCached(operation, key, transcoder);
+    if (cached != null || isKnownMiss(operation, key) || isShortCircuited(operation)) {
+      return cached;
+    }
+    long stamp = stamp(operation, key);
+    long missStamp = missStamp(operation, key);
+    Deadline deadline = deadline(operation);
+    Transcoder<Object> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      checkDeadline(operation, deadline, "value");
+      Object value = isIntercepted(operation) || deadline != null
+          ? await(operation, asyncGet(operation, key, transcoder, wrapped, flight), deadline,
+          "value")
+          : super.get(key, wrapped);
+      operation.found(value == null ? 0 : 1);
+      cache(key, value, transcoder, stamp);
+      cacheMiss(key, value, missStamp);
+      return value;
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      operation.finish();
     }
   }
 
   @Override
   public <T> BulkFuture<Map<String, T>> asyncGetBulk(Iterator<String> keyIter,
       Iterator<Transcoder<T>> tcIter) {
-    Span span = helper.buildSpan("asyncGetBulk");
-    try (Scope ignore = helper.activate(span)) {
-      BulkFuture<Map<String, T>> bulkFuture = super.asyncGetBulk(keyIter, tcIter);
-      bulkFuture.addListener(new TracingBulkGetCompletionListener(span));
-      return bulkFuture;
+    TracedOperation operation = helper.start("asyncGetBulk");
+    List<String> keys = keys(keyIter);
+    helper.tagKeys(operation, keys);
+    helper.recordReads(operation, keys);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(asyncGetBulk(operation, keys, tcIter));
     }
   }
 
   @Override
   public <T> BulkFuture<Map<String, T>> asyncGetBulk(Collection<String> keys,
       Iterator<Transcoder<T>> tcIter) {
-    Span span = helper.buildSpan("asyncGetBulk");
-    span.setTag("keys", TracingHelper.toString(keys));
-    try (Scope ignore = helper.activate(span)) {
-      BulkFuture<Map<String, T>> bulkFuture = super.asyncGetBulk(keys, tcIter);
-      bulkFuture.addListener(new TracingBulkGetCompletionListener(span));
-      return bulkFuture;
+    TracedOperation operation = helper.start("asyncGetBulk");
+    helper.tagKeys(operation, keys);
+    helper.recordReads(operation, keys);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(asyncGetBulk(operation, keys, tcIter));
     }
   }
 
   @Override
   public <T> BulkFuture<Map<String, T>> asyncGetBulk(Iterator<String> keyIter,
       Transcoder<T> transcoder) {
-    Span span = helper.buildSpan("asyncGetBulk");
+    TracedOperation operation = helper.start("asyncGetBulk");
+    Span span = operation.getSpan();
+    List<String> keys = keys(keyIter);
+    helper.tagKeys(operation, keys);
+    helper.recordReads(operation, keys);
     span.setTag("transcoder", nullableClass(transcoder));
-    try (Scope ignore = helper.activate(span)) {
-      BulkFuture<Map<String, T>> bulkFuture = super.asyncGetBulk(keyIter, transcoder);
-      bulkFuture.addListener(new TracingBulkGetCompletionListener(span));
-      return bulkFuture;
+    Transcoder<T> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(asyncGetBulk(operation, keys, repeat(wrapped)));
     }
   }
 
   @Override
   public <T> BulkFuture<Map<String, T>> asyncGetBulk(Collection<String> keys,
       Transcoder<T> transcoder) {
-    Span span = helper.buildSpan("asyncGetBulk");
-    span.setTag("keys", TracingHelper.toString(keys));
+    TracedOperation operation = helper.start("asyncGetBulk");
+    Span span = operation.getSpan();
+    helper.tagKeys(operation, keys);
+    helper.recordReads(operation, keys);
     span.setTag("transcoder", nullableClass(transcoder));
-    try (Scope ignore = helper.activate(span)) {
-      BulkFuture<Map<String, T>> bulkFuture = super.asyncGetBulk(keys, transcoder);
-      bulkFuture.addListener(new TracingBulkGetCompletionListener(span));
-      return bulkFuture;
+    Transcoder<T> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(asyncGetBulk(operation, keys, repeat(wrapped)));
     }
   }
 
   @Override
   public BulkFuture<Map<String, Object>> asyncGetBulk(Iterator<String> keyIter) {
-    Span span = helper.buildSpan("asyncGetBulk");
-    try (Scope ignore = helper.activate(span)) {
-      BulkFuture<Map<String, Object>> bulkFuture = super.asyncGetBulk(keyIter);
-      bulkFuture.addListener(new TracingBulkGetCompletionListener(span));
-      return bulkFuture;
+    TracedOperation operation = helper.start("asyncGetBulk");
+    List<String> keys = keys(keyIter);
+    helper.tagKeys(operation, keys);
+    helper.recordReads(operation, keys);
+    Transcoder<Object> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(asyncGetBulk(operation, keys, repeat(wrapped)));
     }
   }
 
   @Override
   public BulkFuture<Map<String, Object>> asyncGetBulk(Collection<String> keys) {
-    Span span = helper.buildSpan("asyncGetBulk");
-    span.setTag("keys", TracingHelper.toString(keys));
-    try (Scope ignore = helper.activate(span)) {
-      BulkFuture<Map<String, Object>> bulkFuture = super.asyncGetBulk(keys);
-      bulkFuture.addListener(new TracingBulkGetCompletionListener(span));
-      return bulkFuture;
+    TracedOperation operation = helper.start("asyncGetBulk");
+    helper.tagKeys(operation, keys);
+    helper.recordReads(operation, keys);
+    Transcoder<Object> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(asyncGetBulk(operation, keys, repeat(wrapped)));
     }
   }
 
   @Override
   public <T> BulkFuture<Map<String, T>> asyncGetBulk(Transcoder<T> transcoder, String... keys) {
-    Span span = helper.buildSpan("asyncGetBulk");
-    span.setTag("keys", Arrays.toString(keys));
+    TracedOperation operation = helper.start("asyncGetBulk");
+    Span span = operation.getSpan();
+    helper.tagKeys(operation, keys);
+    helper.recordReads(operation, keys);
     span.setTag("transcoder", nullableClass(transcoder));
-    try (Scope ignore = helper.activate(span)) {
-      BulkFuture<Map<String, T>> bulkFuture = super.asyncGetBulk(transcoder, keys);
-      bulkFuture.addListener(new TracingBulkGetCompletionListener(span));
-      return bulkFuture;
+    Transcoder<T> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(
+          asyncGetBulk(operation, Arrays.asList(keys), repeat(wrapped)));
     }
   }
 
   @Override
   public BulkFuture<Map<String, Object>> asyncGetBulk(String... keys) {
-    Span span = helper.buildSpan("asyncGetBulk");
-    span.setTag("keys", Arrays.toString(keys));
-    try (Scope ignore = helper.activate(span)) {
-      BulkFuture<Map<String, Object>> bulkFuture = super.asyncGetBulk(keys);
-      bulkFuture.addListener(new TracingBulkGetCompletionListener(span));
-      return bulkFuture;
+    TracedOperation operation = helper.start("asyncGetBulk");
+    helper.tagKeys(operation, keys);
+    helper.recordReads(operation, keys);
+    Transcoder<Object> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(
+          asyncGetBulk(operation, Arrays.asList(keys), repeat(wrapped)));
     }
   }
 
   @Override
   public OperationFuture<CASValue<Object>> asyncGetAndTouch(String key, int expiration) {
-    Span span = helper.buildSpan("asyncGetAndTouch", key);
+    TracedOperation operation = helper.start("asyncGetAndTouch", key);
+    if (isShortCircuited(operation)) {
+      return shortCircuited(key);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("expiration", expiration);
-    try (Scope ignore = helper.activate(span)) {
-      return super.asyncGetAndTouch(key, expiration)
-          .addListener(new TracingOperationCompletionListener(span));
+    Transcoder<Object> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(
+          invalidateOnCompletion(super.asyncGetAndTouch(key, expiration, wrapped), key));
     }
   }
 
   @Override
   public <T> OperationFuture<CASValue<T>> asyncGetAndTouch(String key, int expiration,
       Transcoder<T> transcoder) {
-    Span span = helper.buildSpan("asyncGetAndTouch", key);
+    TracedOperation operation = helper.start("asyncGetAndTouch", key);
+    if (isShortCircuited(operation)) {
+      return shortCircuited(key);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("expiration", expiration);
     span.setTag("transcoder", nullableClass(transcoder));
-    try (Scope ignore = helper.activate(span)) {
-      return super.asyncGetAndTouch(key, expiration, transcoder)
-          .addListener(new TracingOperationCompletionListener(span));
+    Transcoder<T> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(
+          invalidateOnCompletion(super.asyncGetAndTouch(key, expiration, wrapped), key));
     }
   }
 
   @Override
   public <T> Map<String, T> getBulk(Iterator<String> keyIter, Transcoder<T> transcoder) {
-    Span span = helper.buildSpan("getBulk");
+    TracedOperation operation = helper.start("getBulk");
+    Span span = operation.getSpan();
+    List<String> keys = keys(keyIter);
+    helper.tagKeys(operation, keys);
+    helper.recordReads(operation, keys);
     span.setTag("transcoder", nullableClass(transcoder));
-    try (Scope ignore = helper.activate(span)) {
-      return super.getBulk(keyIter, transcoder);
+    Deadline deadline = deadline(operation);
+    Transcoder<T> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      checkDeadline(operation, deadline, "bulk values");
+      if (isLocallyCached(operation)) {
+        return getBulkCached(operation, keys, transcoder, wrapped, deadline);
+      }
+      Map<String, T> values = deadline == null && !isFannedOut(operation)
+          ? super.getBulk(keys.iterator(), wrapped)
+          : await(operation, asyncGetBulk(operation, keys, repeat(wrapped)), deadline,
+              "bulk values");
+      operation.found(values.size());
+      return values;
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      operation.finish();
     }
   }
 
   @Override
   public Map<String, Object> getBulk(Iterator<String> keyIter) {
-    Span span = helper.buildSpan("getBulk");
-    try (Scope ignore = helper.activate(span)) {
-      return super.getBulk(keyIter);
+    TracedOperation operation = helper.start("getBulk");
+    List<String> keys = keys(keyIter);
+    helper.tagKeys(operation, keys);
+    helper.recordReads(operation, keys);
+    Deadline deadline = deadline(operation);
+    Transcoder<Object> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      checkDeadline(operation, deadline, "bulk values");
+      if (isLocallyCached(operation)) {
+        return getBulkCached(operation, keys, transcoder, wrapped, deadline);
+      }
+      Map<String, Object> values = deadline == null && !isFannedOut(operation)
+          ? super.getBulk(keys.iterator(), wrapped)
+          : await(operation, asyncGetBulk(operation, keys, repeat(wrapped)), deadline,
+              "bulk values");
+      operation.found(values.size());
+      return values;
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      operation.finish();
     }
   }
 
   @Override
   public <T> Map<String, T> getBulk(Collection<String> keys, Transcoder<T> transcoder) {
-    Span span = helper.buildSpan("getBulk");
-    span.setTag("keys", TracingHelper.toString(keys));
+    TracedOperation operation = helper.start("getBulk");
+    Span span = operation.getSpan();
+    helper.tagKeys(operation, keys);
+    helper.recordReads(operation, keys);
     span.setTag("transcoder", nullableClass(transcoder));
-    try (Scope ignore = helper.activate(span)) {
-      return super.getBulk(keys, transcoder);
+    Deadline deadline = deadline(operation);
+    Transcoder<T> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      checkDeadline(operation, deadline, "bulk values");
+      if (isLocallyCached(operation)) {
+        return getBulkCached(operation, keys, transcoder, wrapped, deadline);
+      }
+      Map<String, T> values = deadline == null && !isFannedOut(operation)
+          ? super.getBulk(keys, wrapped)
+          : await(operation, asyncGetBulk(operation, keys, repeat(wrapped)), deadline,
+              "bulk values");
+      operation.found(values.size());
+      return values;
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      operation.finish();
     }
   }
 
   @Override
   public Map<String, Object> getBulk(Collection<String> keys) {
-    Span span = helper.buildSpan("getBulk");
-    span.setTag("keys", TracingHelper.toString(keys));
-    try (Scope ignore = helper.activate(span)) {
-      return super.getBulk(keys);
+    TracedOperation operation = helper.start("getBulk");
+    helper.tagKeys(operation, keys);
+    helper.recordReads(operation, keys);
+    Deadline deadline = deadline(operation);
+    Transcoder<Object> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      checkDeadline(operation, deadline, "bulk values");
+      if (isLocallyCached(operation)) {
+        return getBulkCached(operation, keys, transcoder, wrapped, deadline);
+      }
+      Map<String, Object> values = deadline == null && !isFannedOut(operation)
+          ? super.getBulk(keys, wrapped)
+          : await(operation, asyncGetBulk(operation, keys, repeat(wrapped)), deadline,
+              "bulk values");
+      operation.found(values.size());
+      return values;
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      operation.finish();
     }
   }
 
   @Override
   public <T> Map<String, T> getBulk(Transcoder<T> transcoder, String... keys) {
-    Span span = helper.buildSpan("getBulk");
-    span.setTag("keys", Arrays.toString(keys));
+    TracedOperation operation = helper.start("getBulk");
+    Span span = operation.getSpan();
+    helper.tagKeys(operation, keys);
+    helper.recordReads(operation, keys);
     span.setTag("transcoder", nullableClass(transcoder));
-    try (Scope ignore = helper.activate(span)) {
-      return super.getBulk(transcoder, keys);
+    Deadline deadline = deadline(operation);
+    Transcoder<T> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      checkDeadline(operation, deadline, "bulk values");
+      if (isLocallyCached(operation)) {
+        return getBulkCached(operation, Arrays.asList(keys), transcoder, wrapped, deadline);
+      }
+      Map<String, T> values = deadline == null && !isFannedOut(operation)
+          ? super.getBulk(wrapped, keys)
+          : await(operation, asyncGetBulk(operation, Arrays.asList(keys), repeat(wrapped)),
+              deadline, "bulk values");
+      operation.found(values.size());
+      return values;
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      operation.finish();
     }
   }
 
   @Override
   public Map<String, Object> getBulk(String... keys) {
-    Span span = helper.buildSpan("getBulk");
-    span.setTag("keys", Arrays.toString(keys));
-    try (Scope ignore = helper.activate(span)) {
-      return super.getBulk(keys);
+    TracedOperation operation = helper.start("getBulk");
+    helper.tagKeys(operation, keys);
+    helper.recordReads(operation, keys);
+    Deadline deadline = deadline(operation);
+    Transcoder<Object> wrapped = helper.transcoder(operation, transcoder);
+    try (Scope ignore = helper.activate(operation)) {
+      checkDeadline(operation, deadline, "bulk values");
+      if (isLocallyCached(operation)) {
+        return getBulkCached(operation, Arrays.asList(keys), transcoder, wrapped, deadline);
+      }
+      Map<String, Object> values = deadline == null && !isFannedOut(operation)
+          ? super.getBulk(wrapped, keys)
+          : await(operation, asyncGetBulk(operation, Arrays.asList(keys), repeat(wrapped)),
+              deadline, "bulk values");
+      operation.found(values.size());
+      return values;
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      operation.finish();
+    }
+  }
+
+  /**
+   * @return the get of the key with the transcoder in flight, or <code>null</code> if there is none
+   * or reads are not coalesced
+   */
+  private <T> Flight<T> flight(String key, Transcoder<T> transcoder) {
+    if (coalescer == null || key == null || helper.isNested()) {
+      return null;
+    }
+    return coalescer.get(key, transcoder);
+  }
+
+  private static SpanContext leader(Flight<?> flight) {
+    return flight == null ? null : flight.getLeader();
+  }
+
+  /**
+   * @return <code>true</code> after finishing the operation if the circuit of its node is open, in
+   * which case a read is answered as a miss
+   */
+  private boolean isShortCircuited(TracedOperation operation) {
+    MemcachedNode node = operation.getNode();
+    if (circuitBreaker == null || node == null || operation.isNested()
+        || circuitBreaker.allows(node.getSocketAddress(), operation, operation.getSpan())) {
+      return false;
+    }
+    operation.getSpan().setTag("circuit.open", true);
+    operation.unsent();
+    operation.finish();
+    return true;
+  }
+
+  /**
+   * @return <code>true</code> if the circuit of the primary node of the key is open or half-open
+   */
+  private boolean isCircuitOpen(String key) {
+    return circuitBreaker != null && key != null
+        && circuitBreaker.isOpen(mconn.getLocator().getPrimary(key).getSocketAddress());
+  }
+
+  /**
+   * @return <code>true</code> if the write must be dropped because the circuit of its node is open
+   */
+  private boolean isDropped(TracedOperation operation) {
+    MemcachedNode node = operation.getNode();
+    if (circuitBreaker == null || writePolicy != CircuitBreakerWritePolicy.DROP || node == null
+        || operation.isNested()
+        || circuitBreaker.allows(node.getSocketAddress(), operation, operation.getSpan())) {
+      return false;
     }
+    operation.getSpan().setTag("circuit.open", true);
+    operation.unsent();
+    return true;
+  }
+
+  private OperationFuture<Boolean> dropped(TracedOperation operation, String key) {
+    return dropped(operation, key, false);
+  }
+
+  /**
+   * @param value result of the dropped write, which fails like a write refused by memcached
+   */
+  private <T> OperationFuture<T> dropped(TracedOperation operation, String key, T value) {
+    OperationFuture<T> future = new DroppedWriteFuture<>(key, value, executorService);
+    operation.finish(future.getStatus());
+    return future;
+  }
+
+  /**
+   * @return the completed future of a read answered as a miss because the circuit of its node is
+   * open
+   */
+  private <T> OperationFuture<T> shortCircuited(String key) {
+    return new ReadMissFuture<T>(key, executorService);
+  }
+
+  /**
+   * @return <code>true</code> if single key gets are coalesced or batched instead of being sent by
+   * MemcachedClient
+   */
+  private boolean isIntercepted(TracedOperation operation) {
+    return (coalescer != null || batcher != null) && !operation.isNested();
+  }
+
+  /**
+   * @return the future of the get in flight, or of a new get, added to the next batch if gets are
+   * batched, that following reads of the key with the transcoder will share
+   */
+  private <T> GetFuture<T> asyncGet(TracedOperation operation, String key,
+      Transcoder<T> transcoder, Transcoder<T> wrapped, Flight<T> flight) {
+    Span span = operation.getSpan();
+    if (flight != null) {
+      span.setTag("coalesced", true);
+      return coalescer.join(key, flight);
+    }
+    MemcachedNode node = operation.getNode();
+    GetFuture<T> future = batcher == null ? super.asyncGet(key, wrapped)
+        : batcher.add(key, node == null ? null : node.getSocketAddress(), transcoder, wrapped,
+            span);
+    if (coalescer == null) {
+      return future;
+    }
+    return coalescer.register(key, transcoder, future,
+        span == NoopSpan.INSTANCE ? null : span.context());
+  }
+
+  /**
+   * @return the deadline of the caller if it leaves less than the operation timeout,
+   * <code>null</code> if the operation timeout applies
+   */
+  private Deadline deadline(TracedOperation operation) {
+    if (operation.isNested()) {
+      return null;
+    }
+    Deadline deadline = helper.deadline();
+    return deadline == null
+        || deadline.remainingNanos() >= TimeUnit.MILLISECONDS.toNanos(operationTimeout)
+        ? null : deadline;
+  }
+
+  /**
+   * Fails without sending anything if the deadline already passed
+   */
+  private static void checkDeadline(TracedOperation operation, Deadline deadline, String what) {
+    if (deadline != null && deadline.isExpired()) {
+      operation.getSpan().setTag("deadline.exceeded", true);
+      throw new OperationTimeoutException("Deadline exceeded before waiting for " + what);
+    }
+  }
+
+  /**
+   * Waits like {@link MemcachedClient#get(String, Transcoder)}, but only until the deadline if
+   * there is one
+   */
+  private <T> T await(TracedOperation operation, Future<T> future, Deadline deadline,
+      String what) {
+    try {
+      return deadline == null
+          ? future.get(operationTimeout, TimeUnit.MILLISECONDS)
+          : future.get(deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      throw new RuntimeException("Interrupted waiting for " + what, e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof CancellationException) {
+        throw (CancellationException) e.getCause();
+      }
+      throw new RuntimeException("Exception waiting for " + what, e);
+    } catch (TimeoutException e) {
+      if (deadline == null) {
+        throw new OperationTimeoutException("Timeout waiting for " + what, e);
+      }
+      operation.getSpan().setTag("deadline.exceeded", true);
+      future.cancel(true);
+      throw new OperationTimeoutException("Deadline exceeded waiting for " + what, e);
+    }
+  }
+
+  /**
+   * @return the value cached for the key after finishing the operation, or <code>null</code> if it
+   * has to be read from memcached
+   */
+  private <T> T getCached(TracedOperation operation, String key, Transcoder<T> transcoder) {
+    if (!isNearCached(operation)) {
+      return null;
+    }
+    T value = nearCache.get(key, transcoder);
+    helper.getMetrics().recordNearCacheLookups(1, value == null ? 0 : 1);
+    operation.getSpan().setTag("near_cache.hit", value != null);
+    if (value != null) {
+      operation.found(1);
+      operation.unsent();
+      operation.finish();
+    }
+    return value;
+  }
+
+  /**
+   * @return <code>true</code> after finishing the operation if the key was recently not found,
+   * <code>false</code> if it has to be read from memcached
+   */
+  private boolean isKnownMiss(TracedOperation operation, String key) {
+    if (negativeCache == null || operation.isNested()) {
+      return false;
+    }
+    boolean miss = negativeCache.get(key, null) != null;
+    operation.getSpan().setTag("negative_cache.hit", miss);
+    if (miss) {
+      helper.getMetrics().recordNegativeCacheHits(1);
+      operation.found(0);
+      operation.unsent();
+      operation.finish();
+    }
+    return miss;
+  }
+
+  /**
+   * Serves the keys found in the near cache or recently not found, answers keys of nodes whose
+   * circuit is not closed as misses, and reads only the other ones from memcached
+   */
+  private <T> Map<String, T> getBulkCached(TracedOperation operation, Collection<String> keys,
+      Transcoder<T> transcoder, Transcoder<T> wrapped, Deadline deadline) {
+    Map<String, T> values = new HashMap<>();
+    List<String> misses = new ArrayList<>();
+    int knownMisses = 0;
+    int shortCircuited = 0;
+    for (String key : keys) {
+      T value = nearCache == null ? null : nearCache.get(key, transcoder);
+      if (value != null) {
+        values.put(key, value);
+      } else if (negativeCache != null && negativeCache.get(key, null) != null) {
+        knownMisses++;
+      } else if (isCircuitOpen(key)) {
+        shortCircuited++;
+      } else {
+        misses.add(key);
+      }
+    }
+    Span span = operation.getSpan();
+    if (nearCache != null) {
+      helper.getMetrics().recordNearCacheLookups(keys.size(), values.size());
+      span.setTag("near_cache.hit", values.size() == keys.size());
+      span.setTag("near_cache.hits", values.size());
+    }
+    if (negativeCache != null) {
+      helper.getMetrics().recordNegativeCacheHits(knownMisses);
+      span.setTag("negative_cache.hits", knownMisses);
+    }
+    if (circuitBreaker != null) {
+      span.setTag("circuit.open.keys", shortCircuited);
+    }
+    if (!misses.isEmpty()) {
+      long[] stamps = new long[misses.size()];
+      long[] missStamps = new long[misses.size()];
+      for (int i = 0; i < stamps.length; i++) {
+        stamps[i] = nearCache == null ? -1 : nearCache.stamp(misses.get(i));
+        missStamps[i] = negativeCache == null ? -1 : negativeCache.stamp(misses.get(i));
+      }
+      Map<String, T> fetched = deadline == null && !isFannedOut(operation)
+          ? super.getBulk(misses, wrapped)
+          : await(operation, asyncGetBulk(operation, misses, repeat(wrapped)), deadline,
+              "bulk values");
+      for (int i = 0; i < stamps.length; i++) {
+        String key = misses.get(i);
+        T value = fetched.get(key);
+        cache(key, value, transcoder, stamps[i]);
+        cacheMiss(key, value, missStamps[i]);
+      }
+      values.putAll(fetched);
+    }
+    operation.found(keys.size(), values.size());
+    return values;
+  }
+
+  /**
+   * @return the bulk get of the keys, sent as one bulk get with its own child span per node if
+   * the operation is traced
+   */
+  private <T> BulkFuture<Map<String, T>> asyncGetBulk(TracedOperation operation,
+      Collection<String> keys, Iterator<Transcoder<T>> transcoders) {
+    if (!isFannedOut(operation)) {
+      return untracedBulkGet.asyncGetBulk(keys, transcoders);
+    }
+    boolean binary = opFact instanceof BinaryOperationFactory;
+    for (String key : keys) {
+      StringUtils.validateKey(key, binary);
+    }
+    return BulkGetFanOut.asyncGetBulk(helper, operation, mconn.getLocator(), untracedBulkGet,
+        keys, transcoders, executorService);
+  }
+
+  /**
+   * @return <code>true</code> if the bulk get of the operation is split by node here rather than
+   * by spymemcached, which needs its futures to be readable to combine the values of the nodes
+   */
+  private boolean isFannedOut(TracedOperation operation) {
+    return !operation.isNested() && operation.getSpan() != NoopSpan.INSTANCE
+        && FutureOperations.canReadValues();
+  }
+
+  private static <T> Iterator<Transcoder<T>> repeat(Transcoder<T> transcoder) {
+    return new SingleElementInfiniteIterator<>(transcoder);
+  }
+
+  private static List<String> keys(Iterator<String> keyIter) {
+    List<String> keys = new ArrayList<>();
+    while (keyIter.hasNext()) {
+      keys.add(keyIter.next());
+    }
+    return keys;
+  }
+
+  private boolean isNearCached(TracedOperation operation) {
+    return nearCache != null && !operation.isNested();
+  }
+
+  /**
+   * @return <code>true</code> if some keys of a bulk get may be answered without sending them
+   */
+  private boolean isLocallyCached(TracedOperation operation) {
+    return (nearCache != null || negativeCache != null || circuitBreaker != null)
+        && !operation.isNested();
+  }
+
+  /**
+   * @return the version to pass to {@link #cache}, <code>-1</code> if the value read is not
+   * cached
+   */
+  private long stamp(TracedOperation operation, String key) {
+    return isNearCached(operation) ? nearCache.stamp(key) : -1;
+  }
+
+  private <T> void cache(String key, T value, Transcoder<T> transcoder, long stamp) {
+    if (stamp >= 0) {
+      nearCache.put(key, value, transcoder, stamp);
+    }
+  }
+
+  /**
+   * @return the version to pass to {@link #cacheMiss} and {@link #rememberMiss}, <code>-1</code>
+   * if misses are not cached
+   */
+  private long missStamp(TracedOperation operation, String key) {
+    return negativeCache == null || operation.isNested() ? -1 : negativeCache.stamp(key);
+  }
+
+  private void cacheMiss(String key, Object value, long missStamp) {
+    if (missStamp >= 0 && value == null) {
+      negativeCache.put(key, Boolean.TRUE, null, missStamp);
+    }
+  }
+
+  /**
+   * Caches the key as missing if the get completes without finding it, which is known without
+   * decoding anything
+   */
+  private <T> GetFuture<T> rememberMiss(final String key, final long missStamp,
+      GetFuture<T> future) {
+    if (missStamp >= 0 && future != null) {
+      future.addListener(new GetCompletionListener() {
+        @Override
+        public void onComplete(GetFuture<?> completed) {
+          if (FutureOperations.found(completed) == 0
+              && !TracedOperation.isFailure(completed.getStatus())) {
+            negativeCache.put(key, Boolean.TRUE, null, missStamp);
+          }
+        }
+      });
+    }
+    return future;
+  }
+
+  /**
+   * Drops the key from the near and negative caches and detaches the get of the key in flight
+   * before a write through this client changes it
+   *
+   * @return the version to pass to {@link #writeThrough}, <code>-1</code> if the written value
+   * is not cached
+   */
+  private long invalidate(TracedOperation operation, String key) {
+    if (operation.isNested()) {
+      return -1;
+    }
+    return invalidateWritten(key);
+  }
+
+  /**
+   * Invalidates the key like {@link #invalidate}, and again once memcached applied the write. A get
+   * sent before the write may have read the old value or missed the key after the first
+   * invalidation, and would otherwise keep it cached until its time to live or share it with the
+   * following reads.
+   *
+   * @return the version of the invalidation, <code>-1</code> if there is no near cache
+   */
+  private long invalidateWritten(String key) {
+    if (coalescer != null) {
+      coalescer.detach(key);
+    }
+    if (negativeCache != null) {
+      negativeCache.invalidate(key);
+    }
+    return nearCache == null ? -1 : nearCache.invalidate(key);
+  }
+
+  /**
+   * @return <code>true</code> if the client keeps values, misses or gets in flight that writes of
+   * their keys must invalidate
+   */
+  private boolean invalidatesWrites() {
+    return nearCache != null || negativeCache != null || coalescer != null;
+  }
+
+  /**
+   * {@link #invalidateWritten} for synchronous writes, once they returned or failed
+   */
+  private void invalidateWritten(TracedOperation operation, String key) {
+    if (!operation.isNested()) {
+      invalidateWritten(key);
+    }
+  }
+
+  /**
+   * Calls {@link #invalidateWritten} when the write completes, also for nested writes since the
+   * synchronous call that made them may be waiting on their future
+   */
+  private <T> OperationFuture<T> invalidateOnCompletion(OperationFuture<T> future,
+      final String key) {
+    if (invalidatesWrites() && future != null) {
+      future.addListener(new OperationCompletionListener() {
+        @Override
+        public void onComplete(OperationFuture<?> completed) {
+          invalidateWritten(key);
+        }
+      });
+    }
+    return future;
+  }
+
+  /**
+   * Invalidates the key once memcached confirmed the write, and then caches the stored value for
+   * at most its expiration if the write succeeded
+   *
+   * @param stamp version returned by {@link #invalidate}, <code>-1</code> if the written value
+   * is not cached
+   */
+  private <T> OperationFuture<Boolean> writeThrough(OperationFuture<Boolean> future,
+      final String key, final int expiration, final T value, final Transcoder<T> transcoder,
+      final long stamp) {
+    if (invalidatesWrites() && future != null) {
+      future.addListener(new OperationCompletionListener() {
+        @Override
+        public void onComplete(OperationFuture<?> completed) {
+          long written = invalidateWritten(key);
+          if (stamp >= 0 && completed.getStatus().isSuccess()) {
+            nearCache.put(key, value, transcoder, written, expiration);
+          }
+        }
+      });
+    }
+    return future;
   }
 
   @Override
   public Map<SocketAddress, String> getVersions() {
-    Span span = helper.buildSpan("getVersions");
-    try (Scope ignore = helper.activate(span)) {
+    TracedOperation operation = helper.start("getVersions");
+    try (Scope ignore = helper.activate(operation)) {
       return super.getVersions();
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      operation.finish();
     }
   }
 
   @Override
   public Map<SocketAddress, Map<String, String>> getStats() {
-    Span span = helper.buildSpan("getStats");
-    try (Scope ignore = helper.activate(span)) {
+    TracedOperation operation = helper.start("getStats");
+    try (Scope ignore = helper.activate(operation)) {
       return super.getStats();
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      operation.finish();
     }
   }
 
   @Override
   public Map<SocketAddress, Map<String, String>> getStats(String arg) {
-    Span span = helper.buildSpan("getStats");
+    TracedOperation operation = helper.start("getStats");
+    Span span = operation.getSpan();
     span.setTag("arg", arg);
-    try (Scope ignore = helper.activate(span)) {
+    try (Scope ignore = helper.activate(operation)) {
       return super.getStats(arg);
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      operation.finish();
     }
   }
 
   @Override
   public long incr(String key, long by) {
-    Span span = helper.buildSpan("incr", key);
+    TracedOperation operation = helper.start("incr", key);
+    if (isDropped(operation)) {
+      operation.finish(DroppedWriteFuture.STATUS);
+      return -1;
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("by", by);
-    try (Scope ignore = helper.activate(span)) {
+    try (Scope ignore = helper.activate(operation)) {
       return super.incr(key, by);
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      invalidateWritten(operation, key);
+      operation.finish();
     }
   }
 
   @Override
   public long incr(String key, int by) {
-    Span span = helper.buildSpan("incr", key);
+    TracedOperation operation = helper.start("incr", key);
+    if (isDropped(operation)) {
+      operation.finish(DroppedWriteFuture.STATUS);
+      return -1;
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("by", by);
-    try (Scope ignore = helper.activate(span)) {
+    try (Scope ignore = helper.activate(operation)) {
       return super.incr(key, by);
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      invalidateWritten(operation, key);
+      operation.finish();
     }
   }
 
   @Override
   public long decr(String key, long by) {
-    Span span = helper.buildSpan("decr", key);
+    TracedOperation operation = helper.start("decr", key);
+    if (isDropped(operation)) {
+      operation.finish(DroppedWriteFuture.STATUS);
+      return -1;
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("by", by);
-    try (Scope ignore = helper.activate(span)) {
+    try (Scope ignore = helper.activate(operation)) {
       return super.decr(key, by);
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      invalidateWritten(operation, key);
+      operation.finish();
     }
   }
 
   @Override
   public long decr(String key, int by) {
-    Span span = helper.buildSpan("decr", key);
+    TracedOperation operation = helper.start("decr", key);
+    if (isDropped(operation)) {
+      operation.finish(DroppedWriteFuture.STATUS);
+      return -1;
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("by", by);
-    try (Scope ignore = helper.activate(span)) {
+    try (Scope ignore = helper.activate(operation)) {
       return super.decr(key, by);
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      invalidateWritten(operation, key);
+      operation.finish();
     }
   }
 
   @Override
   public long incr(String key, long by, long def, int expiration) {
-    Span span = helper.buildSpan("incr", key);
+    TracedOperation operation = helper.start("incr", key);
+    if (isDropped(operation)) {
+      operation.finish(DroppedWriteFuture.STATUS);
+      return -1;
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("by", by);
     span.setTag("def", def);
     span.setTag("expiration", expiration);
-    try (Scope ignore = helper.activate(span)) {
+    try (Scope ignore = helper.activate(operation)) {
       return super.incr(key, by, def, expiration);
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      invalidateWritten(operation, key);
+      operation.finish();
     }
   }
 
   @Override
   public long incr(String key, int by, long def, int expiration) {
-    Span span = helper.buildSpan("incr", key);
+    TracedOperation operation = helper.start("incr", key);
+    if (isDropped(operation)) {
+      operation.finish(DroppedWriteFuture.STATUS);
+      return -1;
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("by", by);
     span.setTag("def", def);
     span.setTag("expiration", expiration);
-    try (Scope ignore = helper.activate(span)) {
+    try (Scope ignore = helper.activate(operation)) {
       return super.incr(key, by, def, expiration);
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      invalidateWritten(operation, key);
+      operation.finish();
     }
   }
 
   @Override
   public long decr(String key, long by, long def, int expiration) {
-    Span span = helper.buildSpan("decr", key);
+    TracedOperation operation = helper.start("decr", key);
+    if (isDropped(operation)) {
+      operation.finish(DroppedWriteFuture.STATUS);
+      return -1;
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("by", by);
     span.setTag("def", def);
     span.setTag("expiration", expiration);
-    try (Scope ignore = helper.activate(span)) {
+    try (Scope ignore = helper.activate(operation)) {
       return super.decr(key, by, def, expiration);
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      invalidateWritten(operation, key);
+      operation.finish();
     }
   }
 
   @Override
   public long decr(String key, int by, long def, int expiration) {
-    Span span = helper.buildSpan("decr", key);
+    TracedOperation operation = helper.start("decr", key);
+    if (isDropped(operation)) {
+      operation.finish(DroppedWriteFuture.STATUS);
+      return -1;
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("by", by);
     span.setTag("def", def);
     span.setTag("expiration", expiration);
-    try (Scope ignore = helper.activate(span)) {
+    try (Scope ignore = helper.activate(operation)) {
       return super.decr(key, by, def, expiration);
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      invalidateWritten(operation, key);
+      operation.finish();
     }
   }
 
   @Override
   public OperationFuture<Long> asyncIncr(String key, long by) {
-    Span span = helper.buildSpan("asyncIncr", key);
+    TracedOperation operation = helper.start("asyncIncr", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key, -1L);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("by", by);
-    try (Scope ignore = helper.activate(span)) {
-      return super.asyncIncr(key, by).addListener(new TracingOperationCompletionListener(span));
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(invalidateOnCompletion(super.asyncIncr(key, by), key));
     }
   }
 
   @Override
   public OperationFuture<Long> asyncIncr(String key, int by) {
-    Span span = helper.buildSpan("asyncIncr", key);
+    TracedOperation operation = helper.start("asyncIncr", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key, -1L);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("by", by);
-    try (Scope ignore = helper.activate(span)) {
-      return super.asyncIncr(key, by).addListener(new TracingOperationCompletionListener(span));
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(invalidateOnCompletion(super.asyncIncr(key, by), key));
     }
   }
 
   @Override
   public OperationFuture<Long> asyncDecr(String key, long by) {
-    Span span = helper.buildSpan("asyncDecr", key);
+    TracedOperation operation = helper.start("asyncDecr", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key, -1L);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("by", by);
-    try (Scope ignore = helper.activate(span)) {
-      return super.asyncDecr(key, by).addListener(new TracingOperationCompletionListener(span));
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(invalidateOnCompletion(super.asyncDecr(key, by), key));
     }
   }
 
   @Override
   public OperationFuture<Long> asyncDecr(String key, int by) {
-    Span span = helper.buildSpan("asyncDecr", key);
+    TracedOperation operation = helper.start("asyncDecr", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key, -1L);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("by", by);
-    try (Scope ignore = helper.activate(span)) {
-      return super.asyncDecr(key, by).addListener(new TracingOperationCompletionListener(span));
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(invalidateOnCompletion(super.asyncDecr(key, by), key));
     }
   }
 
   @Override
   public OperationFuture<Long> asyncIncr(String key, long by, long def, int expiration) {
-    Span span = helper.buildSpan("asyncIncr", key);
+    TracedOperation operation = helper.start("asyncIncr", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key, -1L);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("by", by);
     span.setTag("def", def);
     span.setTag("expiration", expiration);
-    try (Scope ignore = helper.activate(span)) {
-      return super.asyncIncr(key, by, def, expiration)
-          .addListener(new TracingOperationCompletionListener(span));
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(
+          invalidateOnCompletion(super.asyncIncr(key, by, def, expiration), key));
     }
   }
 
   @Override
   public OperationFuture<Long> asyncIncr(String key, int by, long def, int expiration) {
-    Span span = helper.buildSpan("asyncIncr", key);
+    TracedOperation operation = helper.start("asyncIncr", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key, -1L);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("by", by);
     span.setTag("def", def);
     span.setTag("expiration", expiration);
-    try (Scope ignore = helper.activate(span)) {
-      return super.asyncIncr(key, by, def, expiration)
-          .addListener(new TracingOperationCompletionListener(span));
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(
+          invalidateOnCompletion(super.asyncIncr(key, by, def, expiration), key));
     }
   }
 
   @Override
   public OperationFuture<Long> asyncDecr(String key, long by, long def, int expiration) {
-    Span span = helper.buildSpan("asyncDecr", key);
+    TracedOperation operation = helper.start("asyncDecr", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key, -1L);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("by", by);
     span.setTag("def", def);
     span.setTag("expiration", expiration);
-    try (Scope ignore = helper.activate(span)) {
-      return super.asyncDecr(key, by, def, expiration)
-          .addListener(new TracingOperationCompletionListener(span));
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(
+          invalidateOnCompletion(super.asyncDecr(key, by, def, expiration), key));
     }
   }
 
   @Override
   public OperationFuture<Long> asyncDecr(String key, int by, long def, int expiration) {
-    Span span = helper.buildSpan("asyncDecr", key);
+    TracedOperation operation = helper.start("asyncDecr", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key, -1L);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("by", by);
     span.setTag("def", def);
     span.setTag("expiration", expiration);
-    try (Scope ignore = helper.activate(span)) {
-      return super.asyncDecr(key, by, def, expiration)
-          .addListener(new TracingOperationCompletionListener(span));
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(
+          invalidateOnCompletion(super.asyncDecr(key, by, def, expiration), key));
     }
   }
 
   @Override
   public OperationFuture<Long> asyncIncr(String key, long by, long def) {
-    Span span = helper.buildSpan("asyncIncr", key);
+    TracedOperation operation = helper.start("asyncIncr", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key, -1L);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("by", by);
     span.setTag("def", def);
-    try (Scope ignore = helper.activate(span)) {
-      return super.asyncIncr(key, by, def)
-          .addListener(new TracingOperationCompletionListener(span));
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(invalidateOnCompletion(super.asyncIncr(key, by, def), key));
     }
   }
 
   @Override
   public OperationFuture<Long> asyncIncr(String key, int by, long def) {
-    Span span = helper.buildSpan("asyncIncr", key);
+    TracedOperation operation = helper.start("asyncIncr", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key, -1L);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("by", by);
     span.setTag("def", def);
-    try (Scope ignore = helper.activate(span)) {
-      return super.asyncIncr(key, by, def)
-          .addListener(new TracingOperationCompletionListener(span));
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(invalidateOnCompletion(super.asyncIncr(key, by, def), key));
     }
   }
 
   @Override
   public OperationFuture<Long> asyncDecr(String key, long by, long def) {
-    Span span = helper.buildSpan("asyncDecr", key);
+    TracedOperation operation = helper.start("asyncDecr", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key, -1L);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("by", by);
     span.setTag("def", def);
-    try (Scope ignore = helper.activate(span)) {
-      return super.asyncDecr(key, by, def)
-          .addListener(new TracingOperationCompletionListener(span));
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(invalidateOnCompletion(super.asyncDecr(key, by, def), key));
     }
   }
 
   @Override
   public OperationFuture<Long> asyncDecr(String key, int by, long def) {
-    Span span = helper.buildSpan("asyncDecr", key);
+    TracedOperation operation = helper.start("asyncDecr", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key, -1L);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("by", by);
     span.setTag("def", def);
-    try (Scope ignore = helper.activate(span)) {
-      return super.asyncDecr(key, by, def)
-          .addListener(new TracingOperationCompletionListener(span));
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(invalidateOnCompletion(super.asyncDecr(key, by, def), key));
     }
   }
 
   @Override
   public long incr(String key, long by, long def) {
-    Span span = helper.buildSpan("incr", key);
+    TracedOperation operation = helper.start("incr", key);
+    if (isDropped(operation)) {
+      operation.finish(DroppedWriteFuture.STATUS);
+      return -1;
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("by", by);
     span.setTag("def", def);
-    try (Scope ignore = helper.activate(span)) {
+    try (Scope ignore = helper.activate(operation)) {
       return super.incr(key, by, def);
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      invalidateWritten(operation, key);
+      operation.finish();
     }
   }
 
   @Override
   public long incr(String key, int by, long def) {
-    Span span = helper.buildSpan("incr", key);
+    TracedOperation operation = helper.start("incr", key);
+    if (isDropped(operation)) {
+      operation.finish(DroppedWriteFuture.STATUS);
+      return -1;
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("by", by);
     span.setTag("def", def);
-    try (Scope ignore = helper.activate(span)) {
+    try (Scope ignore = helper.activate(operation)) {
       return super.incr(key, by, def);
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      invalidateWritten(operation, key);
+      operation.finish();
     }
   }
 
   @Override
   public long decr(String key, long by, long def) {
-    Span span = helper.buildSpan("decr", key);
+    TracedOperation operation = helper.start("decr", key);
+    if (isDropped(operation)) {
+      operation.finish(DroppedWriteFuture.STATUS);
+      return -1;
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("by", by);
     span.setTag("def", def);
-    try (Scope ignore = helper.activate(span)) {
+    try (Scope ignore = helper.activate(operation)) {
       return super.decr(key, by, def);
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      invalidateWritten(operation, key);
+      operation.finish();
     }
   }
 
   @Override
   public long decr(String key, int by, long def) {
-    Span span = helper.buildSpan("decr", key);
+    TracedOperation operation = helper.start("decr", key);
+    if (isDropped(operation)) {
+      operation.finish(DroppedWriteFuture.STATUS);
+      return -1;
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("by", by);
     span.setTag("def", def);
-    try (Scope ignore = helper.activate(span)) {
+    try (Scope ignore = helper.activate(operation)) {
       return super.decr(key, by, def);
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      invalidateWritten(operation, key);
+      operation.finish();
     }
   }
 
   @Override
   @Deprecated
   public OperationFuture<Boolean> delete(String key, int hold) {
-    Span span = helper.buildSpan("delete", key);
+    TracedOperation operation = helper.start("delete", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("hold", hold);
-    try (Scope ignore = helper.activate(span)) {
-      return super.delete(key, hold)
-          .addListener(new TracingOperationCompletionListener(span));
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(invalidateOnCompletion(super.delete(key, hold), key));
     }
   }
 
   @Override
   public OperationFuture<Boolean> delete(String key) {
-    Span span = helper.buildSpan("delete", key);
-    try (Scope ignore = helper.activate(span)) {
-      return super.delete(key).addListener(new TracingOperationCompletionListener(span));
+    TracedOperation operation = helper.start("delete", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key);
+    }
+    invalidate(operation, key);
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(invalidateOnCompletion(super.delete(key), key));
     }
   }
 
   @Override
   public OperationFuture<Boolean> delete(String key, long cas) {
-    Span span = helper.buildSpan("delete", key);
+    TracedOperation operation = helper.start("delete", key);
+    if (isDropped(operation)) {
+      return dropped(operation, key);
+    }
+    invalidate(operation, key);
+    Span span = operation.getSpan();
     span.setTag("cas", cas);
-    try (Scope ignore = helper.activate(span)) {
-      return super.delete(key, cas).addListener(new TracingOperationCompletionListener(span));
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(invalidateOnCompletion(super.delete(key, cas), key));
     }
   }
 
   @Override
   public OperationFuture<Boolean> flush(int delay) {
-    Span span = helper.buildSpan("flush");
+    TracedOperation operation = helper.start("flush");
+    Span span = operation.getSpan();
     span.setTag("delay", delay);
-    try (Scope ignore = helper.activate(span)) {
-      return super.flush(delay).addListener(new TracingOperationCompletionListener(span));
+    if (nearCache != null && !operation.isNested()) {
+      nearCache.clear();
+    }
+    if (negativeCache != null && !operation.isNested()) {
+      negativeCache.clear();
+    }
+    if (coalescer != null && !operation.isNested()) {
+      coalescer.clear();
+    }
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(super.flush(delay));
     }
   }
 
   @Override
   public OperationFuture<Boolean> flush() {
-    Span span = helper.buildSpan("flush");
-    try (Scope ignore = helper.activate(span)) {
-      return super.flush().addListener(new TracingOperationCompletionListener(span));
+    TracedOperation operation = helper.start("flush");
+    if (nearCache != null && !operation.isNested()) {
+      nearCache.clear();
+    }
+    if (negativeCache != null && !operation.isNested()) {
+      negativeCache.clear();
+    }
+    if (coalescer != null && !operation.isNested()) {
+      coalescer.clear();
+    }
+    try (Scope ignore = helper.activate(operation)) {
+      return operation.submitted(super.flush());
     }
   }
 
   @Override
   public Set<String> listSaslMechanisms() {
-    Span span = helper.buildSpan("listSaslMechanisms");
-    try (Scope ignore = helper.activate(span)) {
+    TracedOperation operation = helper.start("listSaslMechanisms");
+    try (Scope ignore = helper.activate(operation)) {
       return super.listSaslMechanisms();
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      operation.finish();
     }
   }
 
   @Override
   public void shutdown() {
-    Span span = helper.buildSpan("shutdown");
-    try (Scope ignore = helper.activate(span)) {
+    stopBackgroundThreads();
+    TracedOperation operation = helper.start("shutdown");
+    try (Scope ignore = helper.activate(operation)) {
       super.shutdown();
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      shutdownFinished(operation);
     }
   }
 
   @Override
   public boolean shutdown(long timeout, TimeUnit unit) {
-    Span span = helper.buildSpan("shutdown");
+    stopBackgroundThreads();
+    TracedOperation operation = helper.start("shutdown");
+    Span span = operation.getSpan();
     span.setTag("timeout", timeout);
     span.setTag("unit", nullable(unit));
-    try (Scope ignore = helper.activate(span)) {
+    try (Scope ignore = helper.activate(operation)) {
       return super.shutdown(timeout, unit);
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      shutdownFinished(operation);
+    }
+  }
+
+  /**
+   * Stops stats polling and queue depth sampling and sends the pending batch of gets before the
+   * connection shuts down
+   */
+  private void stopBackgroundThreads() {
+    if (statsPoller != null) {
+      statsPoller.shutdown();
+    }
+    if (queueDepthSampler != null) {
+      queueDepthSampler.shutdown();
+    }
+    if (batcher != null) {
+      batcher.shutdown();
+    }
+  }
+
+  /**
+   * Stops the span finishing queue once the outermost shutdown call finished its own span
+   */
+  private void shutdownFinished(TracedOperation operation) {
+    operation.finish();
+    if (!operation.isNested()) {
+      helper.shutdown();
     }
   }
 
   @Override
   public boolean waitForQueues(long timeout, TimeUnit unit) {
-    Span span = helper.buildSpan("waitForQueues");
+    TracedOperation operation = helper.start("waitForQueues");
+    Span span = operation.getSpan();
     span.setTag("timeout", timeout);
     span.setTag("unit", nullable(unit));
-    try (Scope ignore = helper.activate(span)) {
+    try (Scope ignore = helper.activate(operation)) {
       return super.waitForQueues(timeout, unit);
     } catch (Exception e) {
-      onError(e, span);
+      operation.onError(e);
       throw e;
     } finally {
-      span.finish();
+      operation.finish();
     }
   }
 
@@ -1204,11 +2434,18 @@ public class TracingMemcachedClient extends MemcachedClient {
   @Override
   public void connectionEstablished(SocketAddress sa, int reconnectCount) {
     super.connectionEstablished(sa, reconnectCount);
+    // the client observes its connection from within MemcachedClient's constructor
+    if (helper != null) {
+      helper.connectionEstablished(sa, reconnectCount);
+    }
   }
 
   @Override
   public void connectionLost(SocketAddress sa) {
     super.connectionLost(sa);
+    if (helper != null) {
+      helper.connectionLost(sa);
+    }
   }
 
   @Override
@@ -13,22 +13,19 @@
  */
 package io.opentracing.contrib.spymemcached;
 
-import io.opentracing.Span;
 import net.spy.memcached.internal.OperationCompletionListener;
 import net.spy.memcached.internal.OperationFuture;
-import net.spy.memcached.ops.OperationStatus;
 
 class TracingOperationCompletionListener implements OperationCompletionListener {
 
-  private final Span span;
+  private final TracedOperation operation;
 
-  TracingOperationCompletionListener(Span span) {
-    this.span = span;
+  TracingOperationCompletionListener(TracedOperation operation) {
+    this.operation = operation;
   }
 
   @Override
   public void onComplete(OperationFuture<?> future) {
-    OperationStatus status = future.getStatus();
-    TracingHelper.setStatusAndFinish(span, status);
+    operation.completed(future, future.getStatus());
   }
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Transcoder decorator bound to one operation that reports the size of the encoded and received
+ * values and the time spent encoding and decoding them to it.
+ */
+class TracingTranscoder<T> implements Transcoder<T> {
+
+  private final Transcoder<T> transcoder;
+  private final TracedOperation operation;
+  /**
+   * Set once spymemcached checked a received value for asynchronous decoding, which is when the
+   * size of values decoded through the TranscodeService is recorded
+   */
+  private volatile boolean received;
+
+  TracingTranscoder(Transcoder<T> transcoder, TracedOperation operation) {
+    this.transcoder = transcoder;
+    this.operation = operation;
+  }
+
+  @Override
+  public boolean asyncDecode(CachedData data) {
+    received(data);
+    return transcoder.asyncDecode(data);
+  }
+
+  /**
+   * Records the size of a value received for the operation
+   */
+  void received(CachedData data) {
+    received = true;
+    operation.addPayloadBytes(data.getData().length);
+  }
+
+  @Override
+  public CachedData encode(T object) {
+    long startNanos = System.nanoTime();
+    CachedData data = transcoder.encode(object);
+    operation.addTranscodeNanos(OperationPhase.ENCODE, System.nanoTime() - startNanos);
+    operation.addPayloadBytes(data.getData().length);
+    return data;
+  }
+
+  @Override
+  public T decode(CachedData data) {
+    long startNanos = System.nanoTime();
+    T decoded = transcoder.decode(data);
+    decoded(data, System.nanoTime() - startNanos);
+    return decoded;
+  }
+
+  /**
+   * Records a value decoded for the operation, possibly by a transcoder shared with other
+   * operations
+   */
+  void decoded(CachedData data, long nanos) {
+    if (!received) {
+      operation.addPayloadBytes(data.getData().length);
+    }
+    operation.addTranscodeNanos(OperationPhase.DECODE, nanos);
+  }
+
+  @Override
+  public int getMaxSize() {
+    return transcoder.getMaxSize();
+  }
+}
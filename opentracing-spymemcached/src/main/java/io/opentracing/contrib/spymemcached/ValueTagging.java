@@ -0,0 +1,39 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+/**
+ * Controls how stored values are represented on write spans.
+ */
+public enum ValueTagging {
+  /**
+   * Values are not tagged at all
+   */
+  OFF,
+  /**
+   * Only the class name of the value is tagged
+   */
+  TYPE,
+  /**
+   * The length of byte arrays and character sequences is tagged, other values fall back to
+   * {@link #TYPE}
+   */
+  LENGTH,
+  /**
+   * Character sequences, numbers, booleans, characters and enums are tagged as a string cut to the
+   * configured maximum length. The string of other values is never built since it could be of any
+   * size, they fall back to {@link #LENGTH}
+   */
+  TRUNCATED
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import net.spy.memcached.CachedData;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.NodeLocator;
+import net.spy.memcached.internal.BulkFuture;
+import net.spy.memcached.internal.BulkGetFuture;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+import net.spy.memcached.transcoders.Transcoder;
+import org.junit.After;
+import org.junit.Test;
+
+public class BulkGetFanOutTest {
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private final MockTracer mockTracer = new MockTracer();
+  private final Transcoder<Object> transcoder = new SerializingTranscoder();
+  private final MemcachedNode first = node(11211);
+  private final MemcachedNode second = node(11212);
+  private final List<NodeGet> nodeGets = new CopyOnWriteArrayList<>();
+  /**
+   * Node that reads a key instead of its primary node
+   */
+  private final Map<String, MemcachedNode> redistributed = new ConcurrentHashMap<>();
+  private final GetBatcher.BulkGet bulkGet = new GetBatcher.BulkGet() {
+    @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public <T> BulkFuture<Map<String, T>> asyncGetBulk(Collection<String> keys,
+        Iterator<Transcoder<T>> transcoders) {
+      NodeGet nodeGet = new NodeGet();
+      nodeGet.keys.addAll(keys);
+      for (int i = 0; i < keys.size(); i++) {
+        nodeGet.transcoders.add((Transcoder<Object>) transcoders.next());
+      }
+      List<Operation> operations = new ArrayList<>();
+      if (redistributed.isEmpty()) {
+        operations.add(new AsciiOperationFactory().get(keys, null));
+      } else {
+        for (String key : keys) {
+          Operation operation = new AsciiOperationFactory().get(key, null);
+          operation.setHandlingNode(redistributed.get(key));
+          operations.add(operation);
+        }
+      }
+      nodeGet.future = new BulkGetFuture<>((Map) nodeGet.values, operations, nodeGet.latch,
+          executor);
+      nodeGets.add(nodeGet);
+      return (BulkFuture) nodeGet.future;
+    }
+  };
+
+  @After
+  public void after() {
+    executor.shutdown();
+  }
+
+  @Test
+  public void childSpanPerNodeAndCombinedValues() throws Exception {
+    TracingHelper helper = new TracingHelper(new TracingConfiguration.Builder(mockTracer).build());
+    TracedOperation operation = helper.start("asyncGetBulk");
+    BulkFuture<Map<String, Object>> future = BulkGetFanOut.asyncGetBulk(helper, operation,
+        locator(), bulkGet, Arrays.asList("a1", "b1", "a2"),
+        Collections.nCopies(3, transcoder).iterator(), executor);
+    assertEquals(2, nodeGets.size());
+    assertEquals(Arrays.asList("a1", "a2"), nodeGets.get(0).keys);
+    assertEquals(Collections.singletonList("b1"), nodeGets.get(1).keys);
+
+    complete(nodeGets.get(0), "a1");
+    assertFalse(future.isDone());
+    complete(nodeGets.get(1), "b1");
+    await().atMost(5, TimeUnit.SECONDS).until(new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        return mockTracer.finishedSpans().size();
+      }
+    }, equalTo(2));
+
+    Map<String, Object> values = future.get(1, TimeUnit.SECONDS);
+    assertEquals(2, values.size());
+    assertEquals("a1", values.get("a1"));
+    assertEquals("b1", values.get("b1"));
+    assertTrue(future.getStatus().isSuccess());
+
+    List<MockSpan> spans = mockTracer.finishedSpans();
+    MockSpan node = spans.get(0).tags().get("peer.port").equals(11211) ? spans.get(0)
+        : spans.get(1);
+    assertEquals(2, node.tags().get("keys.count"));
+    assertEquals(1, node.tags().get("keys.found"));
+    assertEquals((long) transcoder.encode("a1").getData().length,
+        node.tags().get("payload.bytes"));
+    assertEquals(((MockSpan) operation.getSpan()).context().spanId(), node.parentId());
+  }
+
+  @Test
+  public void childSpanNamesNodeThatReadRedistributedKeys() throws Exception {
+    redistributed.put("a2", second);
+    TracingHelper helper = new TracingHelper(new TracingConfiguration.Builder(mockTracer).build());
+    TracedOperation operation = helper.start("asyncGetBulk");
+    BulkFuture<Map<String, Object>> future = BulkGetFanOut.asyncGetBulk(helper, operation,
+        locator(), bulkGet, Arrays.asList("a1", "a2"),
+        Collections.nCopies(2, transcoder).iterator(), executor);
+    assertEquals(1, nodeGets.size());
+
+    complete(nodeGets.get(0), "a2");
+    assertEquals("a2", future.get(1, TimeUnit.SECONDS).get("a2"));
+    await().atMost(5, TimeUnit.SECONDS).until(new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        return mockTracer.finishedSpans().size();
+      }
+    }, equalTo(2));
+
+    List<MockSpan> spans = mockTracer.finishedSpans();
+    MockSpan primary = spans.get(0).tags().get("peer.port").equals(11211) ? spans.get(0)
+        : spans.get(1);
+    MockSpan other = primary == spans.get(0) ? spans.get(1) : spans.get(0);
+    assertEquals(11212, other.tags().get("peer.port"));
+    assertEquals(1, other.tags().get("keys.found"));
+    assertEquals((long) transcoder.encode("a2").getData().length,
+        other.tags().get("payload.bytes"));
+    assertEquals(1, primary.tags().get("keys.count"));
+    assertEquals(0, primary.tags().get("keys.found"));
+    assertEquals(1, helper.getMetrics().getNodeLatency(second.getSocketAddress()).getCount());
+  }
+
+  private void complete(NodeGet nodeGet, String key) {
+    final CachedData data = transcoder.encode(key);
+    nodeGet.transcoders.get(nodeGet.keys.indexOf(key)).asyncDecode(data);
+    FutureTask<Object> value = new FutureTask<>(new Callable<Object>() {
+      @Override
+      public Object call() {
+        return transcoder.decode(data);
+      }
+    });
+    value.run();
+    nodeGet.values.put(key, value);
+    nodeGet.future.setStatus(new OperationStatus(true, "END", StatusCode.SUCCESS));
+    nodeGet.latch.countDown();
+    nodeGet.future.signalComplete();
+  }
+
+  private NodeLocator locator() {
+    return (NodeLocator) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[] {NodeLocator.class}, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            return ((String) args[0]).startsWith("a") ? first : second;
+          }
+        });
+  }
+
+  private static MemcachedNode node(int port) {
+    final InetSocketAddress address = new InetSocketAddress("localhost", port);
+    return (MemcachedNode) Proxy.newProxyInstance(BulkGetFanOutTest.class.getClassLoader(),
+        new Class<?>[] {MemcachedNode.class}, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("getSocketAddress")) {
+              return address;
+            }
+            if (method.getName().equals("hashCode")) {
+              return System.identityHashCode(proxy);
+            }
+            if (method.getName().equals("equals")) {
+              return proxy == args[0];
+            }
+            return null;
+          }
+        });
+  }
+
+  private static class NodeGet {
+
+    private final List<String> keys = new ArrayList<>();
+    private final List<Transcoder<Object>> transcoders = new ArrayList<>();
+    private final Map<String, Future<Object>> values = new ConcurrentHashMap<>();
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private BulkGetFuture<Object> future;
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import org.junit.After;
+import org.junit.Test;
+
+public class BulkWriteTest {
+
+  private final MockTracer mockTracer = new MockTracer();
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      return new Thread(runnable, "listener");
+    }
+  });
+
+  @After
+  public void after() {
+    executor.shutdown();
+  }
+
+  @Test
+  public void childSpanPerNodeAndResultPerKey() throws Exception {
+    final List<String> threads = new CopyOnWriteArrayList<>();
+    TracingHelper helper = new TracingHelper(new TracingConfiguration.Builder(mockTracer)
+        .withOperationListener(new OperationListener() {
+          @Override
+          public void onOperation(String operationName, String key, SocketAddress node,
+              long durationNanos, long payloadBytes, String status) {
+            threads.add(Thread.currentThread().getName());
+          }
+        }).build());
+    TracedOperation operation = helper.start("setBulk");
+    final List<String> written = new CopyOnWriteArrayList<>();
+    BulkWrite write = new BulkWrite(helper, operation, "setBulk", 3, 1000, executor,
+        new BulkWrite.KeyListener() {
+          @Override
+          public void written(String key) {
+            written.add(key);
+          }
+        });
+    BulkWrite.NodeWrite first = write.node(new InetSocketAddress("localhost", 11211));
+    BulkWrite.KeyCallback a = first.callback("a");
+    BulkWrite.KeyCallback b = first.callback("b");
+    BulkWrite.NodeWrite second = write.node(new InetSocketAddress("localhost", 11212));
+    BulkWrite.KeyCallback c = second.callback("c");
+    first.start();
+    second.start();
+
+    complete(a, new OperationStatus(true, "STORED", StatusCode.SUCCESS));
+    complete(c, new OperationStatus(false, "NOT_STORED", StatusCode.ERR_NOT_STORED));
+    assertEquals(1, mockTracer.finishedSpans().size());
+    assertFalse(write.getFuture().isDone());
+    complete(b, new OperationStatus(true, "STORED", StatusCode.SUCCESS));
+
+    Map<String, Boolean> results = write.getFuture().get(1, TimeUnit.SECONDS);
+    assertTrue(results.get("a"));
+    assertTrue(results.get("b"));
+    assertFalse(results.get("c"));
+    assertEquals(StatusCode.ERR_NOT_STORED,
+        write.getFuture().getStatuses().get("c").getStatusCode());
+    assertEquals(Arrays.asList("a", "c", "b"), written);
+
+    await().atMost(5, TimeUnit.SECONDS).until(new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        return mockTracer.finishedSpans().size();
+      }
+    }, equalTo(3));
+    assertEquals(Collections.singletonList("listener"), threads);
+
+    List<MockSpan> spans = mockTracer.finishedSpans();
+    assertEquals(3, spans.size());
+    MockSpan parent = spans.get(2);
+    assertEquals(1, parent.tags().get("keys.failed"));
+    assertEquals(11212, spans.get(0).tags().get("peer.port"));
+    assertEquals(1, spans.get(0).tags().get("keys.count"));
+    assertEquals(2, spans.get(1).tags().get("keys.count"));
+    assertEquals(parent.context().spanId(), spans.get(0).parentId());
+    assertEquals(parent.context().spanId(), spans.get(1).parentId());
+    assertEquals(1, helper.getMetrics().getLatency("setBulk").getCount());
+  }
+
+  private static void complete(BulkWrite.KeyCallback callback, OperationStatus status) {
+    callback.receivedStatus(status);
+    callback.complete();
+  }
+}
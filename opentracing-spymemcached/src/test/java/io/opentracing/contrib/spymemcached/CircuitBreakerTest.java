@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import net.spy.memcached.CASResponse;
+import net.spy.memcached.CASValue;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.ops.StatusCode;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+  private final MockTracer mockTracer = new MockTracer();
+  private final SocketAddress node = new InetSocketAddress("localhost", 11211);
+  private final CircuitBreaker circuitBreaker = new CircuitBreaker(0.5,
+      TimeUnit.MILLISECONDS.toNanos(10), 4, TimeUnit.SECONDS.toNanos(10),
+      TimeUnit.MILLISECONDS.toNanos(50));
+  private final Object probe = new Object();
+
+  @Test
+  public void opensOnSlowOperationsAndClosesAfterProbe() {
+    MockSpan span = mockTracer.buildSpan("get").start();
+    circuitBreaker.record(node, null, TimeUnit.MILLISECONDS.toNanos(1), false, span);
+    circuitBreaker.record(node, null, TimeUnit.MILLISECONDS.toNanos(1), false, span);
+    circuitBreaker.record(node, null, TimeUnit.MILLISECONDS.toNanos(20), false, span);
+    assertTrue(circuitBreaker.allows(node, null, span));
+    circuitBreaker.record(node, null, TimeUnit.MILLISECONDS.toNanos(1), true, span);
+    assertEquals(CircuitState.OPEN, circuitBreaker.states().get(node));
+    assertFalse(circuitBreaker.allows(node, null, span));
+    assertTrue(circuitBreaker.isOpen(node));
+
+    await().atMost(5, TimeUnit.SECONDS).until(probeAllowed(span), equalTo(true));
+    assertEquals(CircuitState.HALF_OPEN, circuitBreaker.states().get(node));
+    assertFalse(circuitBreaker.allows(node, new Object(), span));
+    circuitBreaker.record(node, probe, TimeUnit.MILLISECONDS.toNanos(1), false, span);
+    assertEquals(CircuitState.CLOSED, circuitBreaker.states().get(node));
+    assertTrue(circuitBreaker.allows(node, null, span));
+
+    span.finish();
+    assertEquals("circuit.open", span.logEntries().get(0).fields().get("event"));
+    assertEquals("circuit.half_open", span.logEntries().get(1).fields().get("event"));
+    assertEquals("circuit.closed", span.logEntries().get(2).fields().get("event"));
+  }
+
+  @Test
+  public void failedProbeOpensAgain() {
+    MockSpan span = mockTracer.buildSpan("get").start();
+    for (int i = 0; i < 4; i++) {
+      circuitBreaker.record(node, null, 0, true, span);
+    }
+    await().atMost(5, TimeUnit.SECONDS).until(probeAllowed(span), equalTo(true));
+    circuitBreaker.record(node, probe, 0, true, span);
+    assertEquals(CircuitState.OPEN, circuitBreaker.states().get(node));
+    assertFalse(circuitBreaker.allows(node, null, span));
+  }
+
+  @Test
+  public void onlyProbeDecidesHalfOpenCircuit() {
+    MockSpan span = mockTracer.buildSpan("get").start();
+    for (int i = 0; i < 4; i++) {
+      circuitBreaker.record(node, null, 0, true, span);
+    }
+    await().atMost(5, TimeUnit.SECONDS).until(probeAllowed(span), equalTo(true));
+    circuitBreaker.record(node, null, 0, false, span);
+    circuitBreaker.record(node, new Object(), 0, false, span);
+    assertEquals(CircuitState.HALF_OPEN, circuitBreaker.states().get(node));
+    circuitBreaker.record(node, probe, 0, false, span);
+    assertEquals(CircuitState.CLOSED, circuitBreaker.states().get(node));
+  }
+
+  @Test
+  public void casAndCountersDroppedWhileOpen() throws Exception {
+    InetSocketAddress address = new InetSocketAddress("localhost", 11211);
+    TracingMemcachedClient client = new TracingMemcachedClient(
+        new TracingConfiguration.Builder(mockTracer)
+            .withCircuitBreaker(0.5, 10, 1, TimeUnit.MINUTES)
+            .withCircuitBreakerWindow(1, 1, TimeUnit.MINUTES)
+            .build(), address);
+    try {
+      MockSpan span = mockTracer.buildSpan("get").start();
+      client.getMetrics().getCircuitBreaker().record(address, null, 0, true, span);
+      assertTrue(client.getMetrics().getCircuitBreaker().isOpen(address));
+
+      assertEquals(CASResponse.NOT_FOUND, client.cas("key", 1, "value"));
+      OperationFuture<CASResponse> cas = client.asyncCAS("key", 1, "value");
+      assertEquals(CASResponse.NOT_FOUND, cas.get());
+      assertFalse(cas.getStatus().isSuccess());
+      assertEquals(-1, client.incr("key", 1));
+      assertEquals(Long.valueOf(-1), client.asyncDecr("key", 1, 0).get());
+      assertNull(client.gets("key"));
+      assertNull(client.asyncGetAndTouch("key", 10).get());
+      OperationFuture<CASValue<Object>> gets = client.asyncGets("key");
+      assertNull(gets.get());
+      assertEquals(StatusCode.ERR_NOT_FOUND, gets.getStatus().getStatusCode());
+      assertFalse(gets.isCancelled());
+
+      assertEquals(7, mockTracer.finishedSpans().size());
+      for (MockSpan finished : mockTracer.finishedSpans()) {
+        assertEquals(true, finished.tags().get("circuit.open"));
+      }
+      assertNull(client.getMetrics().getNodeLatency(address));
+    } finally {
+      client.shutdown();
+    }
+  }
+
+  private Callable<Boolean> probeAllowed(final MockSpan span) {
+    return new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return circuitBreaker.allows(node, probe, span);
+      }
+    };
+  }
+}
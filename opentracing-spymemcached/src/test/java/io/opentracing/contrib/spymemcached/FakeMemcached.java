@@ -0,0 +1,182 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Memcached server speaking the text protocol for get, set, add, replace and delete, enough to
+ * drive a client through a given order of responses. The response to the next command starting
+ * with a given verb can be held until it is released.
+ */
+class FakeMemcached implements Closeable {
+
+  private final ServerSocket serverSocket = new ServerSocket(0);
+  private final Map<String, Item> items = new ConcurrentHashMap<>();
+  private volatile String heldVerb;
+  private volatile CountDownLatch held = new CountDownLatch(0);
+
+  FakeMemcached() throws IOException {
+    Thread acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        accept();
+      }
+    }, "fake-memcached");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  InetSocketAddress getAddress() {
+    return new InetSocketAddress("localhost", serverSocket.getLocalPort());
+  }
+
+  void put(String key, String value) {
+    items.put(key, new Item(0, value.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  boolean contains(String key) {
+    return items.containsKey(key);
+  }
+
+  /**
+   * Holds the response to the next command with the verb, and the responses after it, until
+   * {@link #release()} is called
+   */
+  void hold(String verb) {
+    held = new CountDownLatch(1);
+    heldVerb = verb;
+  }
+
+  void release() {
+    held.countDown();
+  }
+
+  @Override
+  public void close() throws IOException {
+    release();
+    serverSocket.close();
+  }
+
+  private void accept() {
+    while (!serverSocket.isClosed()) {
+      try {
+        final Socket socket = serverSocket.accept();
+        Thread connection = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            serve(socket);
+          }
+        }, "fake-memcached-connection");
+        connection.setDaemon(true);
+        connection.start();
+      } catch (IOException e) {
+        return;
+      }
+    }
+  }
+
+  private void serve(Socket socket) {
+    try (Socket ignore = socket) {
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      OutputStream out = socket.getOutputStream();
+      String line;
+      while ((line = readLine(in)) != null) {
+        String[] words = line.split(" ");
+        if (words[0].equals(heldVerb)) {
+          heldVerb = null;
+          held.await(10, TimeUnit.SECONDS);
+        }
+        out.write(respond(words, in).getBytes(StandardCharsets.UTF_8));
+        out.flush();
+      }
+    } catch (IOException | InterruptedException e) {
+      // the client or the server closed
+    }
+  }
+
+  private String respond(String[] words, InputStream in) throws IOException {
+    switch (words[0]) {
+      case "get":
+      case "gets":
+        StringBuilder response = new StringBuilder();
+        for (int i = 1; i < words.length; i++) {
+          Item item = items.get(words[i]);
+          if (item != null) {
+            response.append("VALUE ").append(words[i]).append(' ').append(item.flags).append(' ')
+                .append(item.data.length)
+                .append(words[0].equals("gets") ? " 1" : "").append("\r\n")
+                .append(new String(item.data, StandardCharsets.ISO_8859_1)).append("\r\n");
+          }
+        }
+        return response.append("END\r\n").toString();
+      case "set":
+      case "add":
+      case "replace":
+        byte[] data = new byte[Integer.parseInt(words[4])];
+        for (int i = 0; i < data.length; i++) {
+          data[i] = (byte) in.read();
+        }
+        readLine(in);
+        boolean exists = items.containsKey(words[1]);
+        if (words[0].equals("add") && exists || words[0].equals("replace") && !exists) {
+          return "NOT_STORED\r\n";
+        }
+        items.put(words[1], new Item(Integer.parseInt(words[2]), data));
+        return "STORED\r\n";
+      case "delete":
+        return items.remove(words[1]) == null ? "NOT_FOUND\r\n" : "DELETED\r\n";
+      default:
+        return "ERROR\r\n";
+    }
+  }
+
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int b;
+    while ((b = in.read()) != '\n') {
+      if (b == -1) {
+        return null;
+      }
+      if (b != '\r') {
+        line.write(b);
+      }
+    }
+    return new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+  }
+
+  private static class Item {
+
+    private final int flags;
+    private final byte[] data;
+
+    private Item(int flags, byte[] data) {
+      this.flags = flags;
+      this.data = data;
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+import io.opentracing.noop.NoopSpan;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.spy.memcached.CachedData;
+import net.spy.memcached.internal.BulkFuture;
+import net.spy.memcached.internal.BulkGetFuture;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+import net.spy.memcached.transcoders.Transcoder;
+import org.junit.After;
+import org.junit.Test;
+
+public class GetBatcherTest {
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private final Transcoder<Object> transcoder = new SerializingTranscoder();
+  private final List<Collection<String>> batches = new CopyOnWriteArrayList<>();
+  private final Map<String, Future<Object>> values = new ConcurrentHashMap<>();
+  private final CountDownLatch latch = new CountDownLatch(1);
+  private final List<BulkGetFuture<?>> futures = new CopyOnWriteArrayList<>();
+  private final List<Transcoder<?>> readers = new CopyOnWriteArrayList<>();
+  private final GetBatcher.BulkGet bulkGet = new GetBatcher.BulkGet() {
+    @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public <T> BulkFuture<Map<String, T>> asyncGetBulk(Collection<String> keys,
+        Iterator<Transcoder<T>> transcoders) {
+      batches.add(new ArrayList<>(keys));
+      while (transcoders.hasNext()) {
+        readers.add(transcoders.next());
+      }
+      Operation operation = new AsciiOperationFactory().get(keys, null);
+      BulkGetFuture<T> future = new BulkGetFuture<>((Map) values,
+          Collections.singletonList(operation), latch, executor);
+      futures.add(future);
+      return future;
+    }
+  };
+
+  @After
+  public void after() {
+    executor.shutdown();
+  }
+
+  @Test
+  public void fullBatchIsSentAndDemultiplexed() throws Exception {
+    GetBatcher batcher = new GetBatcher(bulkGet, 2, TimeUnit.MINUTES.toNanos(1), 1000, false,
+        executor);
+    MockSpan span = new MockTracer().buildSpan("asyncGet").start();
+    BatchedGetFuture<Object> found = batcher.add("a", null, transcoder, transcoder, span);
+    BatchedGetFuture<Object> missed =
+        batcher.add("b", null, transcoder, transcoder, NoopSpan.INSTANCE);
+    assertEquals(Collections.singletonList(Arrays.asList("a", "b")), batches);
+    assertEquals(2, span.tags().get("batch.size"));
+    assertFalse(found.isDone());
+
+    FutureTask<Object> value = new FutureTask<>(new Callable<Object>() {
+      @Override
+      public Object call() {
+        return "value";
+      }
+    });
+    value.run();
+    values.put("a", value);
+    latch.countDown();
+    futures.get(0).signalComplete();
+    assertEquals("value", found.get());
+    assertNull(missed.get());
+    assertEquals(1, found.found());
+    assertEquals(0, missed.found());
+    batcher.shutdown();
+  }
+
+  @Test
+  public void batchIsSentAfterWindow() {
+    GetBatcher batcher = new GetBatcher(bulkGet, 10, TimeUnit.MILLISECONDS.toNanos(1), 1000, false,
+        executor);
+    batcher.add("a", null, transcoder, transcoder, NoopSpan.INSTANCE);
+    batcher.add("a", null, transcoder, transcoder, NoopSpan.INSTANCE);
+    await().atMost(5, TimeUnit.SECONDS).until(new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        return batches.size();
+      }
+    }, equalTo(1));
+    assertEquals(Collections.singletonList("a"), batches.get(0));
+    batcher.shutdown();
+  }
+
+  @Test
+  public void tracedGetsOfKeyShareBatch() {
+    GetBatcher batcher = new GetBatcher(bulkGet, 2, TimeUnit.MINUTES.toNanos(1), 1000, false,
+        executor);
+    final AtomicInteger first = new AtomicInteger();
+    final AtomicInteger second = new AtomicInteger();
+    batcher.add("a", null, transcoder, new TracingTranscoder<>(transcoder, operation(first)),
+        NoopSpan.INSTANCE);
+    batcher.add("a", null, transcoder, new TracingTranscoder<>(transcoder, operation(second)),
+        NoopSpan.INSTANCE);
+    batcher.add("b", null, transcoder, transcoder, NoopSpan.INSTANCE);
+    assertEquals(Collections.singletonList(Arrays.asList("a", "b")), batches);
+    assertSame(transcoder, readers.get(1));
+
+    CachedData data = transcoder.encode("value");
+    assertEquals("value", readers.get(0).decode(data));
+    assertEquals(data.getData().length, first.get());
+    assertEquals(data.getData().length, second.get());
+    batcher.shutdown();
+  }
+
+  @Test
+  public void getsOfNodesAreBatchedSeparately() {
+    GetBatcher batcher = new GetBatcher(bulkGet, 2, TimeUnit.MINUTES.toNanos(1), 1000, false,
+        executor);
+    SocketAddress first = new InetSocketAddress("localhost", 11211);
+    SocketAddress second = new InetSocketAddress("localhost", 11212);
+    batcher.add("a", first, transcoder, transcoder, NoopSpan.INSTANCE);
+    batcher.add("b", second, transcoder, transcoder, NoopSpan.INSTANCE);
+    assertTrue(batches.isEmpty());
+    batcher.add("c", first, transcoder, transcoder, NoopSpan.INSTANCE);
+    assertEquals(Collections.singletonList(Arrays.asList("a", "c")), batches);
+
+    batcher.shutdown();
+    assertEquals(Collections.singletonList("b"), batches.get(1));
+  }
+
+  private static TracedOperation operation(final AtomicInteger payloadBytes) {
+    return new TracedOperation("get", "a", NoopSpan.INSTANCE, null, null) {
+      @Override
+      synchronized void addPayloadBytes(int bytes) {
+        payloadBytes.addAndGet(bytes);
+      }
+    };
+  }
+}
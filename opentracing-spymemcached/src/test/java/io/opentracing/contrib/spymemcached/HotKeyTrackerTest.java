@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class HotKeyTrackerTest {
+
+  @Test
+  public void hottestKeysFirst() {
+    HotKeyTracker tracker = new HotKeyTracker(64, TimeUnit.MINUTES.toNanos(1));
+    for (int i = 0; i < 10_000; i++) {
+      tracker.record("key" + i);
+      if (i % 10 == 0) {
+        tracker.record("hot");
+      }
+      if (i % 20 == 0) {
+        tracker.record("warm");
+      }
+    }
+    List<HotKey> top = tracker.top(2);
+    assertEquals(2, top.size());
+    assertEquals("hot", top.get(0).getKey());
+    assertEquals("warm", top.get(1).getKey());
+    assertTrue(top.get(0).getCount() >= 1000);
+    assertTrue(top.get(0).getCount() - top.get(0).getError() <= 1000);
+    assertTrue(top.get(0).getRate() > 0);
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void bucketsAreContiguous() {
+    for (long value = 0; value < 100_000; value++) {
+      int index = LatencyHistogram.indexOf(value);
+      assertTrue(LatencyHistogram.highestValueAt(index) >= value);
+      assertTrue(index == 0 || LatencyHistogram.highestValueAt(index - 1) < value);
+    }
+    assertEquals(LatencyHistogram.MAX_VALUE,
+        LatencyHistogram.highestValueAt(LatencyHistogram.indexOf(Long.MAX_VALUE)));
+  }
+
+  @Test
+  public void percentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long value = 1; value <= 1000; value++) {
+      histogram.record(value * 1000);
+    }
+    LatencySnapshot snapshot = histogram.snapshot();
+    assertEquals(1000, snapshot.getCount());
+    assertEquals(500_000, snapshot.getMedian(), 500_000 * 0.04);
+    assertEquals(990_000, snapshot.get99thPercentile(), 990_000 * 0.04);
+    assertEquals(999_000, snapshot.get999thPercentile(), 999_000 * 0.04);
+    assertEquals(1_000_000, snapshot.getMax(), 1_000_000 * 0.04);
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.opentracing.mock.MockTracer;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+import net.spy.memcached.transcoders.Transcoder;
+import org.junit.Test;
+
+public class NearCacheTest {
+
+  private final Transcoder<Object> transcoder = new SerializingTranscoder();
+  private final NearCache cache = new NearCache(5, TimeUnit.MINUTES.toNanos(1));
+
+  @Test
+  public void scanDoesNotEvictProtectedEntries() {
+    cache.put("hot", "value", transcoder, cache.stamp("hot"));
+    assertEquals("value", cache.get("hot", transcoder));
+    for (int i = 0; i < 10; i++) {
+      cache.put("key" + i, "value", transcoder, cache.stamp("key" + i));
+    }
+    assertEquals(5, cache.size());
+    assertEquals("value", cache.get("hot", transcoder));
+    assertNull(cache.get("key0", transcoder));
+    assertEquals("value", cache.get("key9", transcoder));
+  }
+
+  @Test
+  public void readRacingWithInvalidationIsNotStored() {
+    long stamp = cache.stamp("key");
+    cache.invalidate("key");
+    cache.put("key", "stale", transcoder, stamp);
+    assertNull(cache.get("key", transcoder));
+  }
+
+  @Test
+  public void invalidationOfOtherKeyKeepsRead() {
+    long stamp = cache.stamp("key");
+    cache.invalidate("other");
+    cache.put("key", "value", transcoder, stamp);
+    assertEquals("value", cache.get("key", transcoder));
+  }
+
+  @Test
+  public void readOlderThanForgottenInvalidationIsNotStored() {
+    long stamp = cache.stamp("key");
+    for (int i = 0; i <= 10; i++) {
+      cache.invalidate("key" + i);
+    }
+    cache.put("key", "stale", transcoder, stamp);
+    assertNull(cache.get("key", transcoder));
+  }
+
+  @Test
+  public void otherTranscoderMisses() {
+    cache.put("key", "value", transcoder, cache.stamp("key"));
+    assertNull(cache.get("key", new SerializingTranscoder()));
+  }
+
+  @Test
+  public void ttlCappedByExpiration() {
+    assertEquals(TimeUnit.MINUTES.toNanos(1), cache.ttlNanos(0));
+    assertEquals(TimeUnit.SECONDS.toNanos(10), cache.ttlNanos(10));
+    int absolute = (int) (TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) - 1);
+    cache.put("key", "value", transcoder, cache.stamp("key"), absolute);
+    assertNull(cache.get("key", transcoder));
+  }
+
+  @Test
+  public void getRacingWithDeleteIsNotCached() throws Exception {
+    try (FakeMemcached server = new FakeMemcached()) {
+      server.put("key", "old");
+      final TracingMemcachedClient client = new TracingMemcachedClient(
+          new TracingConfiguration.Builder(new MockTracer())
+              .withNearCache(10, 1, TimeUnit.MINUTES)
+              .withReadCoalescing(true)
+              .build(), server.getAddress());
+      try {
+        // the get is sent before the delete, and a second get made after the delete does not
+        // join it
+        server.hold("get");
+        client.asyncGet("key");
+        OperationFuture<Boolean> delete = client.delete("key");
+        final FutureTask<Object> following = new FutureTask<>(new Callable<Object>() {
+          @Override
+          public Object call() {
+            return client.get("key");
+          }
+        });
+        final Thread reader = new Thread(following);
+        reader.start();
+        await().atMost(5, TimeUnit.SECONDS).until(new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            return reader.getState() == Thread.State.TIMED_WAITING;
+          }
+        });
+        server.release();
+
+        assertNull(following.get(5, TimeUnit.SECONDS));
+        assertTrue(delete.get(5, TimeUnit.SECONDS));
+        await().atMost(5, TimeUnit.SECONDS).until(new Callable<Object>() {
+          @Override
+          public Object call() {
+            return client.get("key");
+          }
+        }, nullValue());
+      } finally {
+        client.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void missRacingWithSetIsNotCached() throws Exception {
+    try (FakeMemcached server = new FakeMemcached()) {
+      final TracingMemcachedClient client = new TracingMemcachedClient(
+          new TracingConfiguration.Builder(new MockTracer())
+              .withNegativeCache(10, 1, TimeUnit.MINUTES)
+              .withReadCoalescing(true)
+              .build(), server.getAddress());
+      try {
+        // the get is sent before the set, and a second get made after the set does not join it
+        server.hold("get");
+        client.asyncGet("key");
+        OperationFuture<Boolean> set = client.set("key", 0, "new");
+        final FutureTask<Object> following = new FutureTask<>(new Callable<Object>() {
+          @Override
+          public Object call() {
+            return client.get("key");
+          }
+        });
+        final Thread reader = new Thread(following);
+        reader.start();
+        await().atMost(5, TimeUnit.SECONDS).until(new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            return reader.getState() == Thread.State.TIMED_WAITING;
+          }
+        });
+        server.release();
+
+        assertEquals("new", following.get(5, TimeUnit.SECONDS));
+        assertTrue(set.get(5, TimeUnit.SECONDS));
+        await().atMost(5, TimeUnit.SECONDS).until(new Callable<Object>() {
+          @Override
+          public Object call() {
+            return client.get("key");
+          }
+        }, equalTo((Object) "new"));
+      } finally {
+        client.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void negativeCacheInvalidatedByWrite() {
+    NearCache misses = NearCache.createNegative(new TracingConfiguration.Builder(new MockTracer())
+        .withNegativeCache(10, 1, TimeUnit.MINUTES).build());
+    misses.put("key", Boolean.TRUE, null, misses.stamp("key"));
+    assertEquals(Boolean.TRUE, misses.get("key", null));
+    misses.invalidate("key");
+    assertNull(misses.get("key", null));
+    assertNull(
+        NearCache.createNegative(new TracingConfiguration.Builder(new MockTracer()).build()));
+  }
+
+  @Test
+  public void knownMissFuture() throws Exception {
+    NearCacheGetFuture<Object> future = new NearCacheGetFuture<>("key", null, null);
+    assertTrue(future.isDone());
+    assertNull(future.get());
+    assertEquals(StatusCode.ERR_NOT_FOUND, future.getStatus().getStatusCode());
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.opentracing.mock.MockTracer;
+import io.opentracing.noop.NoopSpan;
+import org.junit.Test;
+
+public class RateLimitingOperationSamplerTest {
+
+  @Test
+  public void ratePerOperation() {
+    OperationSampler sampler = new RateLimitingOperationSampler.Builder()
+        .withDefaultRate(0)
+        .withRate("cas", 1)
+        .build();
+    assertTrue(sampler.sample("cas"));
+    assertFalse(sampler.sample("get"));
+  }
+
+  @Test
+  public void maxSpansPerSecond() {
+    OperationSampler sampler = new RateLimitingOperationSampler.Builder()
+        .withMaxSpansPerSecond(10)
+        .build();
+    int sampled = 0;
+    for (int i = 0; i < 100; i++) {
+      if (sampler.sample("get")) {
+        sampled++;
+      }
+    }
+    assertEquals(10, sampled, 1);
+  }
+
+  @Test
+  public void sampledOutOperationIsNotTraced() {
+    MockTracer tracer = new MockTracer();
+    TracingHelper helper = new TracingHelper(new TracingConfiguration.Builder(tracer)
+        .withSampler(new RateLimitingOperationSampler.Builder().withRate("get", 0).build())
+        .build());
+    assertSame(NoopSpan.INSTANCE, helper.buildSpan("get", "key"));
+  }
+}
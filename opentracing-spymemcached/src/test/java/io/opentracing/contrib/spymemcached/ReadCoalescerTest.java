@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.opentracing.References;
+import io.opentracing.contrib.spymemcached.ReadCoalescer.Flight;
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+import net.spy.memcached.transcoders.Transcoder;
+import org.junit.After;
+import org.junit.Test;
+
+public class ReadCoalescerTest {
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private final Transcoder<Object> transcoder = new SerializingTranscoder();
+
+  @After
+  public void after() {
+    executor.shutdown();
+  }
+
+  @Test
+  public void sharesFutureUntilCompleted() throws Exception {
+    final ReadCoalescer coalescer = new ReadCoalescer(1000, executor);
+    CountDownLatch latch = new CountDownLatch(1);
+    GetFuture<Object> future = new GetFuture<>(latch, 1000, "key", executor);
+    future.setOperation(new AsciiOperationFactory().get("key", null));
+    GetFuture<Object> leader = coalescer.register("key", transcoder, future, null);
+    Flight<Object> flight = coalescer.get("key", transcoder);
+    assertNotNull(flight);
+    GetFuture<Object> follower = coalescer.join("key", flight);
+    assertNotSame(leader, follower);
+    assertNull(coalescer.get("key", new SerializingTranscoder()));
+    assertNull(coalescer.get("other", transcoder));
+
+    future.set(null, new OperationStatus(true, "END"));
+    latch.countDown();
+    future.signalComplete();
+    assertNull(leader.get(5, TimeUnit.SECONDS));
+    assertNull(follower.get(5, TimeUnit.SECONDS));
+    await().atMost(5, TimeUnit.SECONDS).until(new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        return coalescer.size();
+      }
+    }, equalTo(0));
+  }
+
+  @Test
+  public void cancellingFollowerKeepsSharedGet() throws Exception {
+    try (FakeMemcached server = new FakeMemcached()) {
+      server.put("key", "value");
+      TracingMemcachedClient client = new TracingMemcachedClient(
+          new TracingConfiguration.Builder(new MockTracer())
+              .withReadCoalescing(true)
+              .build(), server.getAddress());
+      try {
+        server.hold("get");
+        GetFuture<Object> leader = client.asyncGet("key");
+        GetFuture<Object> follower = client.asyncGet("key");
+        assertTrue(follower.cancel(true));
+        server.release();
+
+        assertEquals("value", leader.get(5, TimeUnit.SECONDS));
+        assertTrue(follower.isCancelled());
+        assertFalse(leader.isCancelled());
+      } finally {
+        client.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void getAfterSetDoesNotJoinEarlierGet() throws Exception {
+    try (FakeMemcached server = new FakeMemcached()) {
+      server.put("key", "old");
+      TracingMemcachedClient client = new TracingMemcachedClient(
+          new TracingConfiguration.Builder(new MockTracer())
+              .withReadCoalescing(true)
+              .build(), server.getAddress());
+      try {
+        server.hold("get");
+        GetFuture<Object> before = client.asyncGet("key");
+        OperationFuture<Boolean> set = client.set("key", 0, "new");
+        GetFuture<Object> after = client.asyncGet("key");
+        server.release();
+
+        assertEquals("old", before.get(5, TimeUnit.SECONDS));
+        assertTrue(set.get(5, TimeUnit.SECONDS));
+        assertEquals("new", after.get(5, TimeUnit.SECONDS));
+      } finally {
+        client.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void followerSpanFollowsFromLeader() {
+    MockTracer tracer = new MockTracer();
+    TracingHelper helper = new TracingHelper(new TracingConfiguration.Builder(tracer).build());
+    TracedOperation leader = helper.start("get", "key");
+    TracedOperation follower = helper.start("get", "key", leader.getSpan().context());
+    follower.finish();
+    leader.finish();
+    MockSpan span = tracer.finishedSpans().get(0);
+    assertEquals(References.FOLLOWS_FROM, span.references().get(0).getReferenceType());
+    assertEquals(((MockSpan) leader.getSpan()).context().spanId(),
+        span.references().get(0).getContext().spanId());
+  }
+}
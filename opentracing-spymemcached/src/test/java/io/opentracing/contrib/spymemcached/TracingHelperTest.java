@@ -0,0 +1,260 @@
+/*
+ * Copyright 2018-2019 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.contrib.spymemcached;
+
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.opentracing.Scope;
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+import io.opentracing.noop.NoopSpan;
+import io.opentracing.tag.Tags;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+import net.spy.memcached.transcoders.Transcoder;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TracingHelperTest {
+
+  private MockTracer mockTracer = new MockTracer();
+
+  @Before
+  public void before() {
+    mockTracer.reset();
+  }
+
+  @Test
+  public void valueTypeByDefault() {
+    Map<String, Object> tags = tagValue(new TracingConfiguration.Builder(mockTracer).build(),
+        "value");
+    assertEquals(String.class.getName(), tags.get("object.type"));
+    assertEquals(1, tags.size());
+  }
+
+  @Test
+  public void valueOff() {
+    Map<String, Object> tags = tagValue(new TracingConfiguration.Builder(mockTracer)
+        .withValueTagging(ValueTagging.OFF).build(), "value");
+    assertTrue(tags.isEmpty());
+  }
+
+  @Test
+  public void valueLength() {
+    TracingConfiguration configuration = new TracingConfiguration.Builder(mockTracer)
+        .withValueTagging(ValueTagging.LENGTH).build();
+    assertEquals(10, tagValue(configuration, new byte[10]).get("object.length"));
+    assertEquals(5, tagValue(configuration, "value").get("object.length"));
+    assertEquals(Long.class.getName(), tagValue(configuration, 1L).get("object.type"));
+  }
+
+  @Test
+  public void valueTruncated() {
+    TracingConfiguration configuration = new TracingConfiguration.Builder(mockTracer)
+        .withValueTagging(ValueTagging.TRUNCATED).withValueMaxLength(3).build();
+    assertEquals("val", tagValue(configuration, "value").get("object"));
+    assertEquals("12", tagValue(configuration, 12).get("object"));
+    assertEquals(10, tagValue(configuration, new byte[10]).get("object.length"));
+    Map<String, Object> tags = tagValue(configuration, Arrays.asList("value"));
+    assertNull(tags.get("object"));
+    assertEquals(Arrays.asList("value").getClass().getName(), tags.get("object.type"));
+  }
+
+  @Test
+  public void keysSample() {
+    TracingHelper helper = new TracingHelper(new TracingConfiguration.Builder(mockTracer)
+        .withKeysSampleSize(2).build());
+    TracedOperation operation = helper.start("getBulk");
+    helper.tagKeys(operation, Arrays.asList("a", "b", "c"));
+    operation.finish();
+    MockSpan span = mockTracer.finishedSpans().get(0);
+    assertEquals(3, span.tags().get("keys.count"));
+    assertEquals("a, b, ...", span.tags().get("keys"));
+    assertEquals(TracingHelper.fingerprint(Arrays.asList("c", "b", "a")),
+        Long.parseLong((String) span.tags().get("keys.fingerprint"), 16));
+  }
+
+  @Test
+  public void hitRatio() {
+    TracingHelper helper = new TracingHelper(new TracingConfiguration.Builder(mockTracer).build());
+    TracedOperation hit = helper.start("get", "key");
+    hit.found(1);
+    hit.finish();
+    TracedOperation miss = helper.start("get", "key");
+    miss.found(0);
+    miss.finish();
+    assertEquals(true, mockTracer.finishedSpans().get(0).tags().get("cache.hit"));
+    assertEquals(false, mockTracer.finishedSpans().get(1).tags().get("cache.hit"));
+    HitRatio ratio = helper.getMetrics().getHitRatio("get");
+    assertEquals(2, ratio.getLookups());
+    assertEquals(1, ratio.getHits());
+    assertEquals(0.5, ratio.getRatio(), 0);
+  }
+
+  @Test
+  public void reconnect() {
+    TracingHelper helper = new TracingHelper(new TracingConfiguration.Builder(mockTracer)
+        .traceReconnects(true).build());
+    InetSocketAddress address = new InetSocketAddress("localhost", 11211);
+    helper.connectionEstablished(address, 0);
+    assertTrue(mockTracer.finishedSpans().isEmpty());
+    helper.connectionLost(address);
+    assertFalse(helper.getMetrics().getConnectionStats(address).isConnected());
+    helper.connectionEstablished(address, 2);
+    MockSpan span = mockTracer.finishedSpans().get(0);
+    assertEquals("reconnect", span.operationName());
+    assertEquals(2, span.tags().get("reconnectCount"));
+    ConnectionStats stats = helper.getMetrics().getConnectionStats(address);
+    assertTrue(stats.isConnected());
+    assertEquals(1, stats.getReconnects());
+    assertEquals(1, stats.getReconnectTime().getCount());
+  }
+
+  @Test
+  public void slowOperationsOfUntracedCalls() {
+    TracingHelper helper = new TracingHelper(new TracingConfiguration.Builder(mockTracer)
+        .traceWithActiveSpanOnly(true)
+        .withSlowOperationRecorder(2, 0, TimeUnit.MILLISECONDS).build());
+    helper.start("set", "a").finish();
+    helper.start("set", "b").finish();
+    MockSpan parent = mockTracer.buildSpan("parent").start();
+    try (Scope ignore = mockTracer.activateSpan(parent)) {
+      helper.start("get", "c").finish();
+    }
+    assertEquals(1, mockTracer.finishedSpans().size());
+
+    List<SlowOperation> operations = helper.getMetrics().getSlowOperations();
+    assertEquals(2, operations.size());
+    assertEquals("c", operations.get(0).getKey());
+    assertEquals(parent.context().toTraceId(), operations.get(0).getTraceId());
+    assertEquals("b", operations.get(1).getKey());
+    assertNull(operations.get(1).getTraceId());
+  }
+
+  @Test
+  public void operationListener() {
+    final List<String> operations = new ArrayList<>();
+    TracingHelper helper = new TracingHelper(new TracingConfiguration.Builder(mockTracer)
+        .traceWithActiveSpanOnly(true)
+        .withOperationListener(new OperationListener() {
+          @Override
+          public void onOperation(String operationName, String key, SocketAddress node,
+              long durationNanos, long payloadBytes, String status) {
+            operations.add(operationName + " " + key + " " + status);
+          }
+        }).build());
+    TracedOperation operation = helper.start("get", "key");
+    operation.onError(new RuntimeException());
+    operation.finish();
+    assertEquals(Collections.singletonList("get key ERROR"), operations);
+  }
+
+  @Test
+  public void spanFinishingQueue() {
+    TracingHelper helper = new TracingHelper(new TracingConfiguration.Builder(mockTracer)
+        .withSpanFinishingQueue(10).build());
+    TracedOperation operation = helper.start("get", "key");
+    operation.finish();
+    await().atMost(5, TimeUnit.SECONDS).until(new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        return mockTracer.finishedSpans().size();
+      }
+    }, equalTo(1));
+    assertEquals(0, helper.getMetrics().getCompletionStats().getDroppedSpans());
+    helper.shutdown();
+  }
+
+  @Test
+  public void nestedCallsAreNotTraced() {
+    TracingHelper helper = new TracingHelper(new TracingConfiguration.Builder(mockTracer).build());
+    TracedOperation operation = helper.start("get", "key");
+    try (Scope ignore = helper.activate(operation)) {
+      TracedOperation nested = helper.start("asyncGet", "key");
+      assertTrue(nested.isNested());
+      assertSame(NoopSpan.INSTANCE, nested.getSpan());
+    }
+    assertNotSame(NoopSpan.INSTANCE, helper.start("asyncGet", "key").getSpan());
+  }
+
+  @Test
+  public void payloadSize() {
+    TracingHelper helper = new TracingHelper(new TracingConfiguration.Builder(mockTracer)
+        .withTranscoderTracking(true).build());
+    TracedOperation operation = helper.start("set", "key");
+    Transcoder<Object> transcoder = helper.transcoder(operation, new SerializingTranscoder());
+    transcoder.encode("value");
+    operation.finish();
+    MockSpan span = mockTracer.finishedSpans().get(0);
+    assertEquals(5L, span.tags().get("payload.bytes"));
+    assertTrue(span.tags().containsKey("encode.nanos"));
+    assertEquals(1, helper.getMetrics().getPayloadSize("set").getCount());
+    assertEquals(1,
+        helper.getMetrics().getPhaseLatency("set", OperationPhase.ENCODE).getCount());
+  }
+
+  @Test
+  public void transcoderNotWrappedWhenNotTraced() {
+    TracingHelper helper = new TracingHelper(new TracingConfiguration.Builder(mockTracer)
+        .withTranscoderTracking(true).traceWithActiveSpanOnly(true).build());
+    Transcoder<Object> transcoder = new SerializingTranscoder();
+    assertSame(transcoder, helper.transcoder(helper.start("set", "key"), transcoder));
+  }
+
+  @Test
+  public void deadlineFromScopeOrBaggage() {
+    TracingHelper helper = new TracingHelper(new TracingConfiguration.Builder(mockTracer)
+        .withDeadlineBaggageItem("deadline").build());
+    assertNull(helper.deadline());
+    Deadline scoped = Deadline.after(1, TimeUnit.MINUTES);
+    try (Scope ignore = scoped.activate()) {
+      assertSame(scoped, helper.deadline());
+      MockSpan parent = mockTracer.buildSpan("parent").start();
+      parent.setBaggageItem("deadline", String.valueOf(System.currentTimeMillis() + 1000));
+      try (Scope ignored = mockTracer.activateSpan(parent)) {
+        long remaining = helper.deadline().remainingNanos();
+        assertTrue(remaining > 0 && remaining <= TimeUnit.SECONDS.toNanos(1));
+      }
+    }
+    assertNull(Deadline.active());
+  }
+
+  private Map<String, Object> tagValue(TracingConfiguration configuration, Object value) {
+    TracingHelper helper = new TracingHelper(configuration);
+    MockSpan span = (MockSpan) helper.buildSpan("set");
+    helper.tagValue(span, "object", value);
+    span.finish();
+    Map<String, Object> tags = new HashMap<>(span.tags());
+    tags.remove(Tags.COMPONENT.getKey());
+    tags.remove(Tags.SPAN_KIND.getKey());
+    tags.remove(Tags.DB_TYPE.getKey());
+    return tags;
+  }
+}
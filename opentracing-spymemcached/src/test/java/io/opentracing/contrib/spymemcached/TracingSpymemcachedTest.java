@@ -16,12 +16,17 @@ package io.opentracing.contrib.spymemcached;
 import static org.awaitility.Awaitility.await;
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import io.opentracing.mock.MockSpan;
 import io.opentracing.mock.MockTracer;
 import io.opentracing.tag.Tags;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
@@ -66,14 +71,105 @@ public class TracingSpymemcachedTest {
     } catch (Exception ignore) {
     }
 
-    await().atMost(15, TimeUnit.SECONDS).until(reportedSpansSize(), equalTo(6));
+    await().atMost(15, TimeUnit.SECONDS).until(reportedSpansSize(), equalTo(3));
 
     List<MockSpan> spans = mockTracer.finishedSpans();
+    assertEquals(3, spans.size());
     for (MockSpan span : spans) {
       assertEquals(span.tags().get(Tags.SPAN_KIND.getKey()), Tags.SPAN_KIND_CLIENT);
       assertEquals(TracingHelper.COMPONENT_NAME, span.tags().get(Tags.COMPONENT.getKey()));
       assertEquals(TracingHelper.DB_TYPE, span.tags().get(Tags.DB_TYPE.getKey()));
+      assertEquals("localhost", span.tags().get(Tags.PEER_HOSTNAME.getKey()));
+      assertEquals(11211, span.tags().get(Tags.PEER_PORT.getKey()));
+      assertFalse(span.tags().containsKey("queue.depth"));
+      assertTrue(events(span).contains("enqueued"));
     }
+
+    MemcachedClientMetrics metrics = ((TracingMemcachedClient) client).getMetrics();
+    assertEquals(1, metrics.getLatency("set").getCount());
+    assertEquals(1, metrics.getLatency("get").getCount());
+    assertEquals(1, metrics.getLatency("touch").getCount());
+    assertEquals(3, metrics.getNodeLatency(new InetSocketAddress("localhost", 11211)).getCount());
+    assertEquals(1, metrics.getPhaseLatency("get", OperationPhase.ENQUEUE).getCount());
+    assertTrue(metrics.getQueueDepths().containsKey(new InetSocketAddress("localhost", 11211)));
+  }
+
+  @Test
+  public void untracedBulkGet() throws IOException {
+    client.shutdown();
+    client = new TracingMemcachedClient(mockTracer, true,
+        new InetSocketAddress("localhost", 11211));
+    mockTracer.reset();
+    try {
+      client.getBulk("a", "b");
+    } catch (Exception ignore) {
+    }
+
+    assertTrue(mockTracer.finishedSpans().isEmpty());
+  }
+
+  @Test
+  public void queueDepthTaggedWhenSampled() throws Exception {
+    try (FakeMemcached server = new FakeMemcached()) {
+      TracingMemcachedClient sampled = new TracingMemcachedClient(
+          new TracingConfiguration.Builder(mockTracer)
+              .withQueueDepthSampling(10, TimeUnit.MILLISECONDS)
+              .build(), server.getAddress());
+      try {
+        sampled.get("key");
+      } finally {
+        sampled.shutdown();
+      }
+    }
+
+    MockSpan span = mockTracer.finishedSpans().get(0);
+    assertEquals("get", span.operationName());
+    assertEquals(0, span.tags().get("queue.depth"));
+    assertEquals(0, span.tags().get("queue.input"));
+  }
+
+  @Test
+  public void bulkWriteKeysCountAsHotWrites() throws Exception {
+    try (FakeMemcached server = new FakeMemcached()) {
+      TracingMemcachedClient tracked = new TracingMemcachedClient(
+          new TracingConfiguration.Builder(mockTracer)
+              .withHotKeyTracking(10)
+              .build(), server.getAddress());
+      try {
+        tracked.setBulk(Collections.singletonMap("key", "value"), 0).get(5, TimeUnit.SECONDS);
+        tracked.deleteBulk(Collections.singletonList("key")).get(5, TimeUnit.SECONDS);
+
+        MemcachedClientMetrics metrics = tracked.getMetrics();
+        assertTrue(metrics.getHotReadKeys(10).isEmpty());
+        assertEquals("key", metrics.getHotWriteKeys(10).get(0).getKey());
+        assertEquals(2, metrics.getHotWriteKeys(10).get(0).getCount());
+      } finally {
+        tracked.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void bulkGetOfIteratorTaggedWithKeys() {
+    try {
+      client.getBulk(Arrays.asList("a", "b").iterator());
+    } catch (Exception ignore) {
+    }
+
+    List<MockSpan> spans = mockTracer.finishedSpans();
+    MockSpan span = spans.get(spans.size() - 1);
+    assertEquals("getBulk", span.operationName());
+    assertEquals(0, span.parentId());
+    assertEquals(2, span.tags().get("keys.count"));
+    assertEquals("a, b", span.tags().get("keys"));
+  }
+
+  private static List<Object> events(MockSpan span) {
+    List<Object> events = new ArrayList<>();
+    for (MockSpan.LogEntry entry : span.logEntries()) {
+      events.add(entry.fields().get("event"));
+    }
+    return events;
   }
 
   private Callable<Integer> reportedSpansSize() {